@@ -0,0 +1,98 @@
+import java.net.*;
+import java.util.Arrays;
+
+/*
+ * Measures how long the server takes to acknowledge a packet. A stop-and-wait client sends DATA
+ * packets to a session run by ClientManager on an ephemeral port and times each one until its
+ * ACK arrives. For comparison it then times single ACKs sent the old way, through
+ * RDTProtocol.sendPacket, which waits for an acknowledgement that never comes, against
+ * sendControl:
+ *
+ *   java AckLatencyTest 200
+ */
+public class AckLatencyTest {
+    private static final int DEFAULT_PACKETS = 200;
+    private static final int BLOCKING_SAMPLES = 3;
+    private static final int RECEIVE_TIMEOUT = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PACKETS;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        DatagramSocket serverSocket = new DatagramSocket(0, loopback);
+        ClientManager clientManager = new ClientManager(serverSocket);
+        Thread dispatcher = new Thread(() -> dispatch(serverSocket, clientManager), "ack-latency-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        long[] latencies = new long[packets];
+        try (DatagramSocket client = new DatagramSocket(0, loopback)) {
+            client.setSoTimeout(RECEIVE_TIMEOUT);
+            byte[] receiveData = new byte[BufferPool.DEFAULT_BUFFER_SIZE];
+            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+            for (int i = 0; i < packets; i++) {
+                int sequenceNumber = i % RDTProtocol.SEQUENCE_SPACE;
+                byte[] sendData = new Packet(Packet.PacketType.DATA, sequenceNumber, ("Message " + i).getBytes()).toBytes();
+                long sendTime = System.nanoTime();
+                client.send(new DatagramPacket(sendData, sendData.length, loopback, serverSocket.getLocalPort()));
+                Packet response;
+                do {
+                    client.receive(receivePacket);
+                    response = Packet.fromBytes(receiveData, 0, receivePacket.getLength());
+                } while (response.getType() != Packet.PacketType.ACK || response.getSequenceNumber() != sequenceNumber);
+                latencies[i] = System.nanoTime() - sendTime;
+            }
+        } catch (SocketTimeoutException e) {
+            System.err.println("No ACK within " + RECEIVE_TIMEOUT + "ms");
+            System.exit(1);
+        }
+        report("session DATA -> ACK", latencies);
+
+        // The ACK path before the control path existed: one pending future and timer per ACK, then a wait
+        try (DatagramSocket sender = new DatagramSocket(0, loopback);
+             DatagramSocket silentPeer = new DatagramSocket(0, loopback)) {
+            RDTProtocol rdtProtocol = new RDTProtocol(sender);
+            long[] blocking = new long[BLOCKING_SAMPLES];
+            long[] control = new long[BLOCKING_SAMPLES];
+            for (int i = 0; i < BLOCKING_SAMPLES; i++) {
+                Packet ackPacket = new Packet(Packet.PacketType.ACK, i, null);
+                long start = System.nanoTime();
+                rdtProtocol.sendPacket(ackPacket, loopback, silentPeer.getLocalPort());
+                blocking[i] = System.nanoTime() - start;
+                start = System.nanoTime();
+                rdtProtocol.sendControl(ackPacket, loopback, silentPeer.getLocalPort());
+                control[i] = System.nanoTime() - start;
+            }
+            report("ACK via sendPacket", blocking);
+            report("ACK via sendControl", control);
+        }
+
+        clientManager.stopAll();
+        serverSocket.close();
+        System.exit(0);
+    }
+
+    // The server's receive loop, minus its console output
+    private static void dispatch(DatagramSocket socket, ClientManager clientManager) {
+        DatagramPacket receivePacket = new DatagramPacket(new byte[BufferPool.DEFAULT_BUFFER_SIZE], BufferPool.DEFAULT_BUFFER_SIZE);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(receivePacket);
+                Packet packet = Packet.fromBytes(receivePacket.getData(), 0, receivePacket.getLength());
+                clientManager.dispatch(packet, receivePacket.getAddress(), receivePacket.getPort());
+            } catch (Exception e) {
+                if (!socket.isClosed()) {
+                    System.err.println("Dispatcher error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void report(String label, long[] latenciesNanos) {
+        long[] sorted = latenciesNanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0) / 1e6;
+        System.err.println(String.format("%s: %d samples, mean %.2fms, median %.2fms, max %.2fms",
+            label, sorted.length, mean, sorted[sorted.length / 2] / 1e6, sorted[sorted.length - 1] / 1e6));
+    }
+}
@@ -0,0 +1,53 @@
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Regression check for AsyncSender with exact (non-cumulative) ACKs: a peer on loopback ACKs the
+ * first message, replays that ACK once it is stale, then ACKs a second message. Both futures must
+ * complete; before the fix the duplicate ACK killed the receiver thread and the second send failed
+ * with "Sender is closed". Exits non-zero on failure:
+ *
+ *   java AsyncSenderDuplicateAckTest
+ */
+public class AsyncSenderDuplicateAckTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        DatagramSocket peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        peer.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        AsyncSender sender = new AsyncSender(InetAddress.getLoopbackAddress(), peer.getLocalPort(), false);
+        boolean passed = false;
+        try {
+            CompletableFuture<DeliveryReceipt> first = sender.sendAsync(ByteBuffer.wrap("first".getBytes()));
+            DatagramPacket staleAck = acknowledgeNext(peer);
+            first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            peer.send(staleAck);
+
+            CompletableFuture<DeliveryReceipt> second = sender.sendAsync(ByteBuffer.wrap("second".getBytes()));
+            acknowledgeNext(peer);
+            DeliveryReceipt receipt = second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            passed = receipt.getSequenceNumber() == 1;
+            System.out.println((passed ? "PASS" : "FAIL") + ": second message " + receipt);
+        } catch (Exception e) {
+            System.out.println("FAIL: " + e);
+        } finally {
+            sender.close();
+            peer.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Receives one DATA packet and ACKs exactly its sequence number; returns the ACK that was sent
+    private static DatagramPacket acknowledgeNext(DatagramSocket peer) throws Exception {
+        byte[] buffer = new byte[RDTProtocol.MAX_DATAGRAM_SIZE];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        peer.receive(datagram);
+        Packet data = Packet.fromBytes(buffer, 0, datagram.getLength());
+        byte[] ack = new Packet(Packet.PacketType.ACK, data.getSequenceNumber(), null).toBytes();
+        DatagramPacket ackDatagram = new DatagramPacket(ack, ack.length, datagram.getAddress(), datagram.getPort());
+        peer.send(ackDatagram);
+        return ackDatagram;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Bounded pool of fixed-size receive buffers. acquire() hands out a pooled buffer when one is free
+ * and only allocates when the pool is empty, so a receive loop that releases what it borrows stops
+ * allocating once it has warmed up. Buffers released while the pool is full are left to the GC.
+ */
+public class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = RDTProtocol.MAX_DATAGRAM_SIZE;
+    private static final int DEFAULT_MAX_POOLED = 256;
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+    private final byte[][] pooled;
+    private int pooledCount = 0;
+    private long allocatedBuffers = 0;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1 || maxPooled < 1) {
+            throw new IllegalArgumentException("bufferSize and maxPooled must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.pooled = new byte[maxPooled][];
+    }
+
+    // One pool of DEFAULT_BUFFER_SIZE buffers shared by the server loop and every RDTProtocol
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public synchronized byte[] acquire() {
+        if (pooledCount > 0) {
+            byte[] buffer = pooled[--pooledCount];
+            pooled[pooledCount] = null;
+            return buffer;
+        }
+        allocatedBuffers++;
+        return new byte[bufferSize];
+    }
+
+    // Contents are not cleared; callers always bound reads by the received length
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize || pooledCount == pooled.length) {
+            return;
+        }
+        pooled[pooledCount++] = buffer;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized int getPooledCount() {
+        return pooledCount;
+    }
+
+    public synchronized long getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+}
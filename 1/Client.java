@@ -1,16 +1,20 @@
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class Client {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 5000;
     private static final int BUFFER_SIZE = 1024;
-    private static final int TIMEOUT = 1000;
 
     private final DatagramSocket socket;
     private final InetAddress serverAddress;
     private int sequenceNumber;
+    private final RtoEstimator rtoEstimator;
+    private AsyncSender asyncSender;
     private final CommunicationLogger logger;
     private final String transactionId;
     private final long startTime;
@@ -20,9 +24,9 @@ public class Client {
 
     public Client() throws SocketException, UnknownHostException {
         socket = new DatagramSocket();
-        socket.setSoTimeout(TIMEOUT);
         serverAddress = InetAddress.getByName(SERVER_ADDRESS);
         sequenceNumber = 0;
+        rtoEstimator = new RtoEstimator();
         logger = new CommunicationLogger();
         startTime = System.currentTimeMillis();
         rttMeasurements = new ArrayList<>();
@@ -50,6 +54,7 @@ public class Client {
             int maxAttempts = 3;
             
             while (attempts < maxAttempts) {
+                socket.setSoTimeout((int) rtoEstimator.getRto());
                 long sendTime = System.currentTimeMillis();
                 socket.send(sendPacket);
                 packetsSent++;
@@ -70,7 +75,10 @@ public class Client {
 
                     if (response.getType() == Packet.PacketType.ACK &&
                         response.getSequenceNumber() == sequenceNumber) {
-                        sequenceNumber = (sequenceNumber + 1) % 2;
+                        if (attempts == 0) {
+                            rtoEstimator.sample(rtt);
+                        }
+                        sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, 1);
                         return true;
                     } else if (response.getType() == Packet.PacketType.NACK) {
                         logger.logRetransmission(transactionId, packet);
@@ -79,19 +87,46 @@ public class Client {
                     }
 
                 } catch (SocketTimeoutException e) {
+                    rtoEstimator.backoff();
                     logger.logRetransmission(transactionId, packet);
                     attempts++;
                 }
             }
             return false;
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Client error: " + e.getMessage());
             return false;
         }
     }
 
+    // Pipelined alternative to sendMessage(): returns without waiting for the ACK (blocking only while
+    // the in-flight limit is reached) and completes with the receipt. Uses its own socket and session.
+    public CompletableFuture<DeliveryReceipt> sendAsync(ByteBuffer message) {
+        try {
+            return asyncSender().sendAsync(message);
+        } catch (SocketException e) {
+            return AsyncSender.failed(e);
+        }
+    }
+
+    private synchronized AsyncSender asyncSender() throws SocketException {
+        if (asyncSender == null) {
+            asyncSender = new AsyncSender(serverAddress, SERVER_PORT, false);
+        }
+        return asyncSender;
+    }
+
+    public long getCurrentRto() {
+        return rtoEstimator.getRto();
+    }
+
     public void close() {
+        synchronized (this) {
+            if (asyncSender != null) {
+                asyncSender.close();
+            }
+        }
         double averageRTT = rttMeasurements.stream()
                 .mapToLong(Long::longValue)
                 .average()
@@ -111,6 +146,9 @@ public class Client {
     }
 
     public static void main(String[] args) {
+        // "--async" pipelines the test messages through sendAsync() instead of one round trip each
+        boolean async = args.length == 1 && args[0].equals("--async");
+
         try {
             Client client = new Client();
             
@@ -118,6 +156,23 @@ public class Client {
                 "Test1", "Test2", "Test3", "Test4", "Test5"
             };
 
+            if (async) {
+                List<CompletableFuture<DeliveryReceipt>> receipts = new ArrayList<>();
+                for (String message : testMessages) {
+                    receipts.add(client.sendAsync(ByteBuffer.wrap(message.getBytes())));
+                }
+                for (int i = 0; i < receipts.size(); i++) {
+                    try {
+                        System.out.println("Delivered " + testMessages[i] + ": " + receipts.get(i).get());
+                    } catch (ExecutionException e) {
+                        System.out.println("Failed to send message: " + testMessages[i] + " (" +
+                                           e.getCause().getMessage() + ")");
+                    }
+                }
+                client.close();
+                return;
+            }
+
             for (String message : testMessages) {
                 boolean success = client.sendMessage(message);
                 if (!success) {
@@ -5,13 +5,24 @@ import java.time.format.DateTimeFormatter;
 public class ClientLogger {
     private static final String LOG_DIRECTORY = "client_logs";
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final boolean BINARY_FORMAT = "binary".equalsIgnoreCase(System.getProperty("rdt.log.format"));
     private final String logFile;
+    private final EventJournal journal;
     private static int sessionCounter = 0;
     
     public ClientLogger() {
         createLogDirectory();
         this.logFile = LOG_DIRECTORY + "/client_session_" + 
-                      LocalDateTime.now().format(DATE_FORMAT) + ".log";
+                      LocalDateTime.now().format(DATE_FORMAT) + (BINARY_FORMAT ? ".journal" : ".log");
+        EventJournal opened = null;
+        if (BINARY_FORMAT) {
+            try {
+                opened = EventJournal.forFile(logFile);
+            } catch (IOException e) {
+                System.err.println("Error opening journal, falling back to text log: " + e.getMessage());
+            }
+        }
+        this.journal = opened;
     }
     
     private void createLogDirectory() {
@@ -28,6 +39,10 @@ public class ClientLogger {
     }
     
     public void logPacketSent(String sessionId, Packet packet, long rtt) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_SENT, sessionId, packet, rtt);
+            return;
+        }
         logEvent(sessionId, "Packet sent", 
                 String.format("Type: %s, Seq: %d, RTT: %dms", 
                 packet.getType(), 
@@ -36,6 +51,10 @@ public class ClientLogger {
     }
     
     public void logRetransmission(String sessionId, Packet packet) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_RETRANSMITTED, sessionId, packet, EventJournal.NO_RTT);
+            return;
+        }
         logEvent(sessionId, "Packet retransmitted", 
                 "Type: " + packet.getType() + 
                 ", Seq: " + packet.getSequenceNumber());
@@ -52,6 +71,10 @@ public class ClientLogger {
     }
     
     private synchronized void logEvent(String sessionId, String event, String details) {
+        if (journal != null) {
+            journal.logNote(sessionId, event, details);
+            return;
+        }
         try (FileWriter fw = new FileWriter(logFile, true);
              BufferedWriter bw = new BufferedWriter(fw)) {
             
@@ -5,13 +5,36 @@ import java.time.format.DateTimeFormatter;
 public class CommunicationLogger {
     private static final String LOG_DIRECTORY = "logs";
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    // -Drdt.log.async=drop|block|sample hands events to a background writer instead of writing inline
+    private static final String ASYNC_POLICY = System.getProperty("rdt.log.async");
+    private static final int ASYNC_CAPACITY = Integer.getInteger("rdt.log.capacity", 8192);
+    // -Drdt.log.format=binary writes fixed-width records to a .journal file (see JournalDecoder)
+    private static final boolean BINARY_FORMAT = "binary".equalsIgnoreCase(System.getProperty("rdt.log.format"));
     private final String logFile;
+    private final AsyncLogWriter asyncWriter;
+    private final EventJournal journal;
     private static int transactionCounter = 0;
     
     public CommunicationLogger() {
         createLogDirectory();
         this.logFile = LOG_DIRECTORY + "/communication_" + 
-                      LocalDateTime.now().format(DATE_FORMAT) + ".log";
+                      LocalDateTime.now().format(DATE_FORMAT) + (BINARY_FORMAT ? ".journal" : ".log");
+        this.journal = BINARY_FORMAT ? openJournal(logFile) : null;
+        if (ASYNC_POLICY != null && journal == null) {
+            AsyncLogWriter.OverflowPolicy policy = AsyncLogWriter.OverflowPolicy.valueOf(ASYNC_POLICY.toUpperCase());
+            this.asyncWriter = AsyncLogWriter.shared(ASYNC_CAPACITY, policy, true);
+        } else {
+            this.asyncWriter = null;
+        }
+    }
+    
+    private static EventJournal openJournal(String journalFile) {
+        try {
+            return EventJournal.forFile(journalFile);
+        } catch (IOException e) {
+            System.err.println("Error opening journal, falling back to text log: " + e.getMessage());
+            return null;
+        }
     }
     
     private void createLogDirectory() {
@@ -27,35 +50,71 @@ public class CommunicationLogger {
         return transactionId;
     }
     
-    public void logPacketSentWithRTT(String transactionId, Packet packet, long rtt) {
-        logEvent(transactionId, "Packet sent", 
-                String.format("Type: %s, Seq: %d, RTT: %dms", 
-                packet.getType(), 
-                packet.getSequenceNumber(),
-                rtt));
-    }
-    
     public void logPacketSent(String transactionId, Packet packet) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_SENT, transactionId, packet, EventJournal.NO_RTT);
+            return;
+        }
         logEvent(transactionId, "Packet sent", 
                 "Type: " + packet.getType() + 
                 ", Seq: " + packet.getSequenceNumber());
     }
     
     public void logPacketReceived(String transactionId, Packet packet) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_RECEIVED, transactionId, packet, EventJournal.NO_RTT);
+            return;
+        }
         logEvent(transactionId, "Packet received", 
                 "Type: " + packet.getType() + 
                 ", Seq: " + packet.getSequenceNumber());
     }
     
     public void logRetransmission(String transactionId, Packet packet) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_RETRANSMITTED, transactionId, packet, EventJournal.NO_RTT);
+            return;
+        }
         logEvent(transactionId, "Packet retransmitted", 
                 "Type: " + packet.getType() + 
                 ", Seq: " + packet.getSequenceNumber());
     }
     
     public void endTransaction(String transactionId, String clientAddress, int clientPort, 
-                             long startTime, int packetsSent, int packetsReceived, 
-                             double averageRTT) {
+                             long startTime, int packetsSent, int packetsReceived) {
+        long duration = System.currentTimeMillis() - startTime;
+        String metrics = String.format(
+            "Client: %s:%d, Duration: %dms, Packets Sent: %d, Packets Received: %d",
+            clientAddress, clientPort, duration, packetsSent, packetsReceived
+        );
+        logEvent(transactionId, "Transaction completed", metrics);
+    }
+    
+    public void logPacketDropped(String transactionId, Packet packet) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_DROPPED, transactionId, packet, EventJournal.NO_RTT);
+            return;
+        }
+        logEvent(transactionId, "Packet dropped", 
+                "Type: " + packet.getType() + 
+                ", Seq: " + packet.getSequenceNumber() + 
+                " - Simulated packet loss");
+    }
+    
+    public void logPacketSentWithRTT(String transactionId, Packet packet, long rtt) {
+        if (journal != null) {
+            journal.logPacket(EventJournal.PACKET_SENT, transactionId, packet, rtt);
+            return;
+        }
+        logEvent(transactionId, "Packet sent", 
+                String.format("Type: %s, Seq: %d, RTT: %dms", 
+                packet.getType(), 
+                packet.getSequenceNumber(),
+                rtt));
+    }
+    
+    public void endTransaction(String transactionId, String clientAddress, int clientPort, 
+                             long startTime, int packetsSent, int packetsReceived, double averageRTT) {
         long duration = System.currentTimeMillis() - startTime;
         String metrics = String.format(
             "Client: %s:%d, Duration: %dms, Packets Sent: %d, Packets Received: %d, Average RTT: %.2fms",
@@ -64,7 +123,31 @@ public class CommunicationLogger {
         logEvent(transactionId, "Transaction completed", metrics);
     }
     
-    private synchronized void logEvent(String transactionId, String event, String details) {
+    public void logCongestionState(String transactionId, String algorithm, int cwnd, int ssthresh,
+                                   double goodputBytesPerSecond) {
+        logEvent(transactionId, "Congestion state", 
+                String.format("Algorithm: %s, cwnd: %d, ssthresh: %d, Goodput: %.2f KB/s",
+                algorithm, cwnd, ssthresh, goodputBytesPerSecond / 1024));
+    }
+    
+    // Process-wide: every logger publishes through the one shared writer
+    public long getDroppedEvents() {
+        return asyncWriter != null ? asyncWriter.getDroppedEvents() : 0;
+    }
+    
+    private void logEvent(String transactionId, String event, String details) {
+        if (journal != null) {
+            journal.logNote(transactionId, event, details);
+            return;
+        }
+        if (asyncWriter != null) {
+            asyncWriter.publish(logFile, transactionId, event, details);
+            return;
+        }
+        writeEvent(transactionId, event, details);
+    }
+    
+    private synchronized void writeEvent(String transactionId, String event, String details) {
         try (FileWriter fw = new FileWriter(logFile, true);
              BufferedWriter bw = new BufferedWriter(fw)) {
             
@@ -75,7 +158,7 @@ public class CommunicationLogger {
                 details);
             
             bw.write(logEntry);
-            System.out.println(logEntry);
+            System.out.println(logEntry); 
             
         } catch (IOException e) {
             System.err.println("Error writing to log file: " + e.getMessage());
@@ -0,0 +1,30 @@
+// Completes an AsyncSender future: which packets carried the message and what it took to get them acknowledged.
+public class DeliveryReceipt {
+    private final int sequenceNumber;
+    private final int packetCount;
+    private final int bytes;
+    private final long rttMillis;
+    private final int retries;
+
+    public DeliveryReceipt(int sequenceNumber, int packetCount, int bytes, long rttMillis, int retries) {
+        this.sequenceNumber = sequenceNumber;
+        this.packetCount = packetCount;
+        this.bytes = bytes;
+        this.rttMillis = rttMillis;
+        this.retries = retries;
+    }
+
+    public int getSequenceNumber() { return sequenceNumber; }
+    public int getPacketCount() { return packetCount; }
+    public int getBytes() { return bytes; }
+    // Time from the last transmission of the final packet to its ACK
+    public long getRttMillis() { return rttMillis; }
+    // Retransmissions summed over all of the message's packets
+    public int getRetries() { return retries; }
+
+    @Override
+    public String toString() {
+        return "DeliveryReceipt[seq=" + sequenceNumber + ", packets=" + packetCount + ", bytes=" + bytes +
+               ", rtt=" + rttMillis + "ms, retries=" + retries + "]";
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/*
+ * Non-blocking alternative to Server: one thread, one DatagramChannel and a Selector drive every
+ * session. Per-client state is a plain Session object instead of a ServerThread, and the receive
+ * and send buffers are allocated once and reused for every datagram. Speaks the same wire
+ * protocol, so the existing clients work against it unchanged. Sessions are bounded like
+ * ClientManager's: evicted when idle (-Drdt.session.idleTimeout) or least-recently-used at
+ * capacity (-Drdt.session.max).
+ */
+public class EventLoopServer {
+    // rdt.port moves the server, e.g. behind the folder 4 ImpairmentProxy on 5000
+    private static final int PORT = Integer.getInteger("rdt.port", 5000);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECEIVE_WINDOW = 32;
+    private static final long IDLE_TIMEOUT = Long.getLong("rdt.session.idleTimeout", 60000);
+    private static final int MAX_SESSIONS = Integer.getInteger("rdt.session.max", 4096);
+    private static final long SWEEP_INTERVAL = Math.max(1, Math.min(IDLE_TIMEOUT / 4, 1000));
+
+    private final int port;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final BinaryPacketCodec codec = new BinaryPacketCodec();
+    // Access order: the least recently used session comes first, so the idle ones are all at the front
+    private final Map<SocketAddress, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private final CommunicationLogger logger;
+    private volatile boolean running;
+    private long malformedPackets = 0;
+    private long unsentPackets = 0;
+    private long evictedSessions = 0;
+
+    private static class Session {
+        final InetSocketAddress address;
+        final String transactionId;
+        final ReceiveWindow receiveWindow = new ReceiveWindow(RECEIVE_WINDOW);
+        final long startTime = System.currentTimeMillis();
+        long lastSeen = startTime;
+        int packetsSent = 0;
+        int packetsReceived = 0;
+
+        Session(InetSocketAddress address, String transactionId) {
+            this.address = address;
+            this.transactionId = transactionId;
+        }
+    }
+
+    public EventLoopServer() throws IOException {
+        this(PORT);
+    }
+
+    public EventLoopServer(int port) throws IOException {
+        this.port = port;
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        logger = new CommunicationLogger();
+    }
+
+    public void start() {
+        running = true;
+        System.out.println("Event loop server started on port " + port);
+
+        try {
+            while (running) {
+                // Wakes at least every SWEEP_INTERVAL so idle sessions go even when no traffic arrives
+                selector.select(SWEEP_INTERVAL);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        drainChannel();
+                    }
+                }
+                evictIdle(System.currentTimeMillis());
+            }
+        } catch (ClosedSelectorException | ClosedChannelException e) {
+            // stop() closed the channel underneath the loop
+        } catch (IOException e) {
+            System.err.println("Event loop server error: " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    private void drainChannel() throws IOException {
+        SocketAddress source;
+        while ((source = channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            try {
+                Packet packet = codec.decode(receiveBuffer);
+                handlePacket(packet, (InetSocketAddress) source);
+            } catch (ProtocolException e) {
+                malformedPackets++;
+            }
+            receiveBuffer.clear();
+        }
+    }
+
+    private void handlePacket(Packet packet, InetSocketAddress source) throws IOException {
+        Session session = sessions.get(source);
+        if (session == null) {
+            if (sessions.size() >= MAX_SESSIONS) {
+                Iterator<Session> eldest = sessions.values().iterator();
+                Session leastRecentlyUsed = eldest.next();
+                eldest.remove();
+                evicted(leastRecentlyUsed, "capacity");
+            }
+            String transactionId = logger.startTransaction(source.getAddress().getHostAddress(), source.getPort());
+            session = new Session(source, transactionId);
+            sessions.put(source, session);
+            System.out.println("New client connected: " + source);
+        }
+        session.lastSeen = System.currentTimeMillis();
+
+        if (!packet.isValid()) {
+            send(session, new Packet(Packet.PacketType.NACK, packet.getSequenceNumber(), null));
+            return;
+        }
+        if (packet.getType() != Packet.PacketType.DATA) {
+            return;
+        }
+
+        for (Packet delivered : session.receiveWindow.receive(packet)) {
+            session.packetsReceived++;
+            logger.logPacketReceived(session.transactionId, delivered);
+        }
+
+        Packet ackPacket = new Packet(
+            Packet.PacketType.ACK,
+            session.receiveWindow.getLastInOrder(),
+            null
+        ).withSelectiveAcks(session.receiveWindow.getSelectiveAcks());
+        send(session, ackPacket);
+        logger.logPacketSent(session.transactionId, ackPacket);
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Session> eldest = sessions.values().iterator();
+        while (eldest.hasNext()) {
+            Session session = eldest.next();
+            if (now - session.lastSeen < IDLE_TIMEOUT) {
+                return;
+            }
+            eldest.remove();
+            evicted(session, "idle");
+        }
+    }
+
+    private void evicted(Session session, String reason) {
+        endTransaction(session);
+        evictedSessions++;
+        System.out.println("Client session evicted (" + reason + "): " + session.address);
+    }
+
+    private void endTransaction(Session session) {
+        logger.endTransaction(session.transactionId, session.address.getAddress().getHostAddress(),
+                              session.address.getPort(), session.startTime,
+                              session.packetsSent, session.packetsReceived, 0.0);
+    }
+
+    // Non-blocking send: if the socket buffer is full the ACK is dropped and the sender's timer recovers it
+    private void send(Session session, Packet packet) throws IOException {
+        sendBuffer.clear();
+        codec.encode(packet, sendBuffer);
+        sendBuffer.flip();
+        if (channel.send(sendBuffer, session.address) == 0) {
+            unsentPackets++;
+            return;
+        }
+        session.packetsSent++;
+    }
+
+    public void stop() {
+        if (!running && !channel.isOpen()) {
+            return;
+        }
+        running = false;
+        for (Session session : sessions.values()) {
+            endTransaction(session);
+        }
+        sessions.clear();
+        System.out.println("Event loop stats - Malformed: " + malformedPackets + ", Unsent: " + unsentPackets +
+                           ", Evicted sessions: " + evictedSessions);
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing event loop server: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            EventLoopServer server = new EventLoopServer();
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Could not start event loop server: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/*
+ * Receiving end of RDTProtocol.sendFile: every segment is written straight into a memory-mapped
+ * destination file at its offset. The destination is mapped a region at a time, so heap use stays
+ * flat whatever the file size. A transfer that is abandoned part way is abort()ed, which deletes
+ * the partial file.
+ */
+public class MappedFileWriter implements Closeable {
+    private static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+
+    private final Path destination;
+    private final FileChannel channel;
+    private final long fileLength;
+    private final long startTime;
+    private long lastWriteTime;
+    private MappedByteBuffer region;
+    private long regionStart = -1;
+    private long bytesWritten = 0;
+
+    public MappedFileWriter(Path destination, long fileLength) throws IOException {
+        if (fileLength <= 0) {
+            throw new IOException("File length " + fileLength + " is not positive");
+        }
+        this.destination = destination;
+        this.fileLength = fileLength;
+        this.channel = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.startTime = System.currentTimeMillis();
+        this.lastWriteTime = startTime;
+    }
+
+    public boolean fits(long offset, int length) {
+        return offset >= 0 && offset <= fileLength - length;
+    }
+
+    // Returns true once every byte of the file has been written
+    public boolean write(long offset, byte[] data) throws IOException {
+        if (!fits(offset, data.length)) {
+            throw new IOException("Segment at " + offset + " does not fit a " + fileLength + "-byte file");
+        }
+        int copied = 0;
+        while (copied < data.length) {
+            long position = offset + copied;
+            if (region == null || position < regionStart || position >= regionStart + region.capacity()) {
+                if (region != null) {
+                    region.force();
+                }
+                regionStart = position - position % MAP_REGION_SIZE;
+                region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart,
+                                     Math.min(MAP_REGION_SIZE, fileLength - regionStart));
+            }
+            ByteBuffer slice = region.duplicate();
+            slice.position((int) (position - regionStart));
+            int length = Math.min(data.length - copied, slice.remaining());
+            slice.put(data, copied, length);
+            copied += length;
+        }
+        bytesWritten += data.length;
+        lastWriteTime = System.currentTimeMillis();
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return bytesWritten >= fileLength;
+    }
+
+    public Path getDestination() {
+        return destination;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public long getIdleMillis(long now) {
+        return now - lastWriteTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (region != null) {
+            region.force();
+            region = null;
+        }
+        channel.close();
+    }
+
+    // Closes without flushing and deletes the partial file
+    public void abort() throws IOException {
+        region = null;
+        channel.close();
+        Files.deleteIfExists(destination);
+    }
+}
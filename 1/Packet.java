@@ -1,7 +1,11 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 
 public class Packet implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final PacketCodec WIRE_CODEC = PacketCodec.BINARY_CODEC;
+    public static final int NO_RECEIVE_WINDOW = -1;
+    public static final int MAX_RECEIVE_WINDOW = 0xFFFF;
     
     public enum PacketType {
         DATA,
@@ -14,6 +18,17 @@ public class Packet implements Serializable {
     private byte[] data;
     private long checksum;
     private long timestamp;
+    private long selectiveAcks;
+    private int fragmentIndex;
+    private int fragmentCount;
+    private int fragmentOffset;
+    private int messageLength;
+    private int transferId;
+    private long fileOffset;
+    private long fileLength;
+    private boolean receiveWindowAdvertised;
+    private int receiveWindow;
+    private boolean batch;
     
     public Packet(PacketType type, int sequenceNumber, byte[] data) {
         this.type = type;
@@ -22,17 +37,108 @@ public class Packet implements Serializable {
         this.timestamp = System.currentTimeMillis();
         this.checksum = calculateChecksum();
     }
+
+    Packet(PacketType type, int sequenceNumber, byte[] data, long checksum, long timestamp) {
+        this.type = type;
+        this.sequenceNumber = sequenceNumber;
+        this.data = data;
+        this.checksum = checksum;
+        this.timestamp = timestamp;
+    }
     
     public PacketType getType() { return type; }
     public int getSequenceNumber() { return sequenceNumber; }
     public byte[] getData() { return data; }
     public long getChecksum() { return checksum; }
     public long getTimestamp() { return timestamp; }
+    public long getSelectiveAcks() { return selectiveAcks; }
+    public int getFragmentIndex() { return fragmentIndex; }
+    public int getFragmentCount() { return fragmentCount; }
+    public int getFragmentOffset() { return fragmentOffset; }
+    public int getMessageLength() { return messageLength; }
+    public boolean isFragment() { return fragmentCount > 0; }
+    public int getTransferId() { return transferId; }
+    public long getFileOffset() { return fileOffset; }
+    public long getFileLength() { return fileLength; }
+    public boolean isFileSegment() { return fileLength > 0; }
+    public boolean hasReceiveWindow() { return receiveWindowAdvertised; }
+    public int getReceiveWindow() { return receiveWindowAdvertised ? receiveWindow : NO_RECEIVE_WINDOW; }
+    public boolean isBatch() { return batch; }
+
+    // Bit i set means sequence number (this ACK's sequence + 2 + i) is buffered at the receiver.
+    public Packet withSelectiveAcks(long selectiveAcks) {
+        this.selectiveAcks = selectiveAcks;
+        this.checksum = calculateChecksum();
+        return this;
+    }
+
+    void setSelectiveAcks(long selectiveAcks) {
+        this.selectiveAcks = selectiveAcks;
+    }
+
+    // Marks this packet as fragment index of count, carrying bytes [offset, offset + data.length) of a messageLength-byte message.
+    public Packet withFragment(int index, int count, int offset, int messageLength) {
+        setFragment(index, count, offset, messageLength);
+        this.checksum = calculateChecksum();
+        return this;
+    }
+
+    void setFragment(int index, int count, int offset, int messageLength) {
+        this.fragmentIndex = index;
+        this.fragmentCount = count;
+        this.fragmentOffset = offset;
+        this.messageLength = messageLength;
+    }
+
+    // Marks this packet as the bytes at fileOffset of file transfer transferId, whose file is fileLength bytes long.
+    public Packet withFileSegment(int transferId, long fileOffset, long fileLength) {
+        setFileSegment(transferId, fileOffset, fileLength);
+        this.checksum = calculateChecksum();
+        return this;
+    }
+
+    void setFileSegment(int transferId, long fileOffset, long fileLength) {
+        this.transferId = transferId;
+        this.fileOffset = fileOffset;
+        this.fileLength = fileLength;
+    }
+
+    // Flow control on ACKs: how many more packets past this ACK the receiver can queue right now (0 = stop sending).
+    public Packet withReceiveWindow(int receiveWindow) {
+        setReceiveWindow(receiveWindow);
+        this.checksum = calculateChecksum();
+        return this;
+    }
+
+    void setReceiveWindow(int receiveWindow) {
+        this.receiveWindowAdvertised = true;
+        this.receiveWindow = Math.max(0, Math.min(receiveWindow, MAX_RECEIVE_WINDOW));
+    }
+
+    // Marks the payload as several length-prefixed application messages (see MessageBatcher).
+    public Packet withBatch() {
+        setBatch();
+        this.checksum = calculateChecksum();
+        return this;
+    }
+
+    void setBatch() {
+        this.batch = true;
+    }
     
     private long calculateChecksum() {
         long sum = 0;
         sum += type.ordinal();
         sum += sequenceNumber;
+        sum += selectiveAcks ^ (selectiveAcks >>> 32);
+        sum += fragmentIndex + fragmentCount + fragmentOffset + messageLength;
+        sum += transferId + (fileOffset ^ (fileOffset >>> 32)) + (fileLength ^ (fileLength >>> 32));
+        if (receiveWindowAdvertised) {
+            sum += receiveWindow + 1;
+        }
+        if (batch) {
+            sum += 1;
+        }
         if (data != null) {
             for (byte b : data) {
                 sum += (b & 0xFF);
@@ -46,16 +152,23 @@ public class Packet implements Serializable {
     }
     
     public byte[] toBytes() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(this);
-        return baos.toByteArray();
+        return WIRE_CODEC.encode(this);
     }
     
-    public static Packet fromBytes(byte[] bytes) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        return (Packet) ois.readObject();
+    public static Packet fromBytes(byte[] bytes) throws IOException {
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    public static Packet fromBytes(byte[] bytes, int offset, int length) throws IOException {
+        return PacketCodec.detect(bytes, offset, length).decode(bytes, offset, length);
+    }
+
+    // Decodes the heap buffer between position and limit; a receive loop that keeps one view of its buffer wraps nothing per packet
+    public static Packet fromBuffer(ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == PacketCodec.BINARY_VERSION) {
+            return PacketCodec.BINARY_CODEC.decode(buffer);
+        }
+        return fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
     }
     
     @Override
@@ -63,4 +176,4 @@ public class Packet implements Serializable {
         return String.format("Packet[type=%s, seq=%d, checksum=%d, dataSize=%d]",
             type, sequenceNumber, checksum, (data != null ? data.length : 0));
     }
-} 
\ No newline at end of file
+}
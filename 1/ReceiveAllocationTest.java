@@ -0,0 +1,111 @@
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Measures the bytes the server's receive loop allocates per datagram. Loopback DATA packets are
+ * received and decoded two ways on the same thread: the copying path the loop used to have (a new
+ * buffer and DatagramPacket per receive, then Arrays.copyOf before decoding) and Server's pooled
+ * path (one DatagramPacket, BufferPool buffer and ByteBuffer view held for the whole loop,
+ * decoded in place):
+ *
+ *   java ReceiveAllocationTest 200000
+ *
+ * Needs a JVM that reports per-thread allocation (HotSpot does).
+ */
+public class ReceiveAllocationTest {
+    private static final int DEFAULT_PACKETS = 200000;
+    private static final int COPYING_BUFFER_SIZE = 1024;
+    private static final int RECEIVE_TIMEOUT = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PACKETS;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not report per-thread allocation");
+            System.exit(1);
+        }
+
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket sender = new DatagramSocket()) {
+            receiver.setSoTimeout(RECEIVE_TIMEOUT);
+            byte[] wire = new Packet(Packet.PacketType.DATA, 1, "Test message 1 for the burst test".getBytes()).toBytes();
+            DatagramPacket datagram = new DatagramPacket(wire, wire.length, receiver.getLocalAddress(), receiver.getLocalPort());
+
+            // Each mode runs twice and the second run is reported, so JIT warm-up is not counted
+            for (int run = 0; run < 2; run++) {
+                for (boolean pooled : new boolean[] {false, true}) {
+                    Thread flood = startSender(sender, datagram, packets);
+                    long threadId = Thread.currentThread().getId();
+                    long before = threads.getThreadAllocatedBytes(threadId);
+                    int received = pooled ? receivePooled(receiver, packets) : receiveCopying(receiver, packets);
+                    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+                    flood.join();
+                    if (run == 1) {
+                        System.err.println(String.format("Mode: %s, Packets: %d, Allocated: %.0f bytes/packet",
+                            pooled ? "pooled" : "copying", received, allocated / (double) Math.max(1, received)));
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static Thread startSender(DatagramSocket socket, DatagramPacket datagram, int packets) {
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < packets; i++) {
+                    socket.send(datagram);
+                    // Pace the flood a little so the receive buffer does not overflow
+                    if ((i & 63) == 0) {
+                        Thread.sleep(0, 1000);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Sender stopped: " + e.getMessage());
+            }
+        }, "receive-allocation-sender");
+        sender.start();
+        return sender;
+    }
+
+    private static int receiveCopying(DatagramSocket socket, int packets) throws Exception {
+        int received = 0;
+        try {
+            while (received < packets) {
+                byte[] receiveData = new byte[COPYING_BUFFER_SIZE];
+                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+                socket.receive(receivePacket);
+                Packet.fromBytes(Arrays.copyOf(receivePacket.getData(), receivePacket.getLength()));
+                received++;
+            }
+        } catch (SocketTimeoutException e) {
+            // Datagrams lost on loopback; report what arrived
+        }
+        return received;
+    }
+
+    private static int receivePooled(DatagramSocket socket, int packets) throws Exception {
+        BufferPool bufferPool = BufferPool.shared();
+        byte[] receiveBuffer = bufferPool.acquire();
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
+        int received = 0;
+        try {
+            while (received < packets) {
+                receivePacket.setLength(receiveBuffer.length);
+                socket.receive(receivePacket);
+                receiveView.clear().limit(receivePacket.getLength());
+                Packet.fromBuffer(receiveView);
+                received++;
+            }
+        } catch (SocketTimeoutException e) {
+            // Datagrams lost on loopback; report what arrived
+        } finally {
+            bufferPool.release(receiveBuffer);
+        }
+        return received;
+    }
+}
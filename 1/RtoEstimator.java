@@ -0,0 +1,50 @@
+/*
+ * Retransmission timeout from smoothed RTT and RTT variance (Jacobson/Karels, RFC 6298):
+ *
+ *   RTTVAR = 3/4 * RTTVAR + 1/4 * |SRTT - R|
+ *   SRTT   = 7/8 * SRTT   + 1/8 * R
+ *   RTO    = SRTT + max(G, 4 * RTTVAR)
+ *
+ * Callers apply Karn's rule by only sampling packets that were never retransmitted, and call
+ * backoff() on every timeout so the RTO doubles until the next clean sample.
+ */
+public class RtoEstimator {
+    public static final long INITIAL_RTO = 1000;
+    public static final long MIN_RTO = 200;
+    public static final long MAX_RTO = 60000;
+    private static final long CLOCK_GRANULARITY = 1;
+
+    private double smoothedRtt;
+    private double rttVariance;
+    private boolean hasSample;
+    private long rto = INITIAL_RTO;
+
+    public synchronized void sample(long rttMillis) {
+        if (!hasSample) {
+            smoothedRtt = rttMillis;
+            rttVariance = rttMillis / 2.0;
+            hasSample = true;
+        } else {
+            rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - rttMillis);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rttMillis;
+        }
+        long computed = (long) Math.ceil(smoothedRtt + Math.max(CLOCK_GRANULARITY, 4 * rttVariance));
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, computed));
+    }
+
+    public synchronized void backoff() {
+        rto = Math.min(MAX_RTO, rto * 2);
+    }
+
+    public synchronized long getRto() {
+        return rto;
+    }
+
+    public synchronized double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public synchronized double getRttVariance() {
+        return rttVariance;
+    }
+}
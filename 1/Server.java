@@ -1,34 +1,44 @@
 import java.net.*;
 import java.io.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 public class Server {
-    private static final int PORT = 5000;
-    private static final int BUFFER_SIZE = 1024;
+    // rdt.port moves the server, e.g. behind the folder 4 ImpairmentProxy on 5000
+    private static final int PORT = Integer.getInteger("rdt.port", 5000);
     private DatagramSocket socket;
     private boolean running;
     private final ClientManager clientManager;
+    private final BufferPool bufferPool = BufferPool.shared();
+    private long malformedPackets = 0;
 
     public Server() throws SocketException {
+        this(null);
+    }
+
+    public Server(ExecutorService sessionExecutor) throws SocketException {
         socket = new DatagramSocket(PORT);
-        clientManager = new ClientManager(socket);
+        clientManager = new ClientManager(socket, sessionExecutor);
     }
 
     public void start() {
         running = true;
         System.out.println("Server started on port " + PORT);
         
+        // The loop is the only reader, so it holds one pooled buffer, one DatagramPacket and one
+        // ByteBuffer view for its whole life; each datagram is decoded in place and its payload
+        // copied out, so the only per-packet allocation is the decoded Packet
+        byte[] receiveBuffer = bufferPool.acquire();
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
         try {
             while (running) {
-                byte[] receiveBuffer = new byte[BUFFER_SIZE];
-                DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-                
-                socket.receive(receivePacket);
+                receivePacket.setLength(receiveBuffer.length);
                 
                 try {
-                    Packet packet = Packet.fromBytes(
-                        Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                    );
+                    socket.receive(receivePacket);
+                    receiveView.clear().limit(receivePacket.getLength());
+                    Packet packet = Packet.fromBuffer(receiveView);
                     
                     if (!packet.isValid()) {
                         sendNACK(receivePacket.getAddress(), receivePacket.getPort(), packet.getSequenceNumber());
@@ -37,13 +47,15 @@ public class Server {
 
                     processPacket(packet, receivePacket.getAddress(), receivePacket.getPort());
                     
-                } catch (ClassNotFoundException e) {
+                } catch (ProtocolException e) {
+                    malformedPackets++;
                     System.err.println("Error deserializing packet: " + e.getMessage());
                 }
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
         } finally {
+            bufferPool.release(receiveBuffer);
             stop();
         }
     }
@@ -52,28 +64,8 @@ public class Server {
         System.out.println("Received packet from " + clientAddress + ":" + clientPort);
         System.out.println("Packet contents: " + new String(packet.getData()));
 
-        try {
-            Packet ackPacket = new Packet(
-                Packet.PacketType.ACK,
-                packet.getSequenceNumber(),
-                null
-            );
-            
-            byte[] sendData = ackPacket.toBytes();
-            DatagramPacket sendPacket = new DatagramPacket(
-                sendData,
-                sendData.length,
-                clientAddress,
-                clientPort
-            );
-            
-            socket.send(sendPacket);
-            System.out.println("Sent ACK for sequence number: " + packet.getSequenceNumber());
-        } catch (IOException e) {
-            System.err.println("Error sending ACK: " + e.getMessage());
-        }
-
-        clientManager.handleClient(clientAddress, clientPort);
+        // The client's ServerThread sends the ACK once it has processed the packet
+        clientManager.dispatch(packet, clientAddress, clientPort);
     }
 
     private void sendNACK(InetAddress clientAddress, int clientPort, int sequenceNumber) throws IOException {
@@ -96,6 +88,12 @@ public class Server {
 
     public void stop() {
         running = false;
+        System.out.println("Dispatcher stats - Routed: " + clientManager.getRoutedPackets() +
+                           ", Dropped: " + clientManager.getDroppedPackets() +
+                           ", Malformed: " + malformedPackets);
+        System.out.println("Session stats - Live: " + clientManager.getLiveSessions() +
+                           ", Evicted: " + clientManager.getEvictedSessions() +
+                           ", Peak: " + clientManager.getPeakSessions());
         clientManager.stopAll();
         if (socket != null && !socket.isClosed()) {
             socket.close();
@@ -103,10 +101,15 @@ public class Server {
     }
 
     public static void main(String[] args) {
+        // "--virtual-threads" runs each client session on a virtual thread instead of a platform thread
         try {
-            Server server = new Server();
+            ExecutorService sessionExecutor = null;
+            if (args.length > 0 && args[0].equals("--virtual-threads")) {
+                sessionExecutor = ClientManager.newVirtualThreadExecutor();
+            }
+            Server server = new Server(sessionExecutor);
             server.start();
-        } catch (SocketException e) {
+        } catch (SocketException | UnsupportedOperationException e) {
             System.err.println("Could not start server: " + e.getMessage());
         }
     }
@@ -1,5 +1,6 @@
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.*;
 import java.util.*;
 
 public class ServerThread extends Thread {
@@ -7,8 +8,11 @@ public class ServerThread extends Thread {
     private final InetAddress clientAddress;
     private final int clientPort;
     private final RDTProtocol rdtProtocol;
-    private boolean running;
+    private volatile boolean running;
     private final CommunicationLogger logger;
+    private static final int INBOUND_CAPACITY = 256;
+    private static final long POLL_INTERVAL = 100;
+    private final BlockingQueue<Packet> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
     private final String transactionId;
     private final long startTime;
     private int packetsSent = 0;
@@ -31,21 +35,12 @@ public class ServerThread extends Thread {
     public void run() {
         try {
             while (running) {
-                byte[] receiveData = new byte[1024];
-                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                
                 long receiveTime = System.currentTimeMillis();
-                socket.receive(receivePacket);
-                
-                if (!receivePacket.getAddress().equals(clientAddress) || 
-                    receivePacket.getPort() != clientPort) {
+                Packet packet = inbound.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (packet == null) {
                     continue;
                 }
 
-                Packet packet = Packet.fromBytes(
-                    Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                );
-
                 if (!packet.isValid()) {
                     sendNACK(packet.getSequenceNumber());
                     continue;
@@ -53,8 +48,10 @@ public class ServerThread extends Thread {
 
                 processPacket(packet, receiveTime);
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Error in ServerThread: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             rdtProtocol.stop();
         }
@@ -72,9 +69,9 @@ public class ServerThread extends Thread {
             Packet.PacketType.ACK,
             packet.getSequenceNumber(),
             null
-        );
+        ).withReceiveWindow(advertisedWindow());
         
-        rdtProtocol.sendPacket(ackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(ackPacket, clientAddress, clientPort);
         packetsSent++;
         logger.logPacketSentWithRTT(transactionId, ackPacket, rtt);
     }
@@ -86,7 +83,16 @@ public class ServerThread extends Thread {
             null
         );
         
-        rdtProtocol.sendPacket(nackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(nackPacket, clientAddress, clientPort);
+    }
+
+    // Flow control: advertise only what the inbound queue can still hold, so a fast sender cannot overrun it
+    private int advertisedWindow() {
+        return inbound.remainingCapacity();
+    }
+
+    public boolean deliver(Packet packet) {
+        return running && inbound.offer(packet);
     }
 
     public void stopThread() {
@@ -0,0 +1,57 @@
+import java.lang.management.ManagementFactory;
+import java.net.*;
+
+/*
+ * Opens N idle sessions through ClientManager and reports live threads and heap, so the
+ * platform-thread and virtual-thread session modes can be compared:
+ *
+ *   java SessionScaleTest 10000
+ *   java SessionScaleTest 100000 --virtual-threads
+ */
+public class SessionScaleTest {
+    private static final int DEFAULT_SESSIONS = 10000;
+    private static final int PORTS_PER_ADDRESS = 50000;
+    private static final int FIRST_PORT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SESSIONS;
+        boolean virtualThreads = args.length > 1 && args[1].equals("--virtual-threads");
+
+        DatagramSocket socket = new DatagramSocket(0);
+        // Sized to hold every session with no idle eviction, so the numbers below are all live sessions
+        ClientManager clientManager = new ClientManager(socket,
+            virtualThreads ? ClientManager.newVirtualThreadExecutor() : null, Long.MAX_VALUE, sessions);
+
+        int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baselineHeap = usedHeap();
+        long startTime = System.currentTimeMillis();
+
+        // Spread sessions over 127.0.x.y so more than one address' worth of ports can be simulated
+        for (int i = 0; i < sessions; i++) {
+            int host = i / PORTS_PER_ADDRESS + 1;
+            InetAddress address = InetAddress.getByAddress(
+                new byte[] {127, 0, (byte) (host >> 8), (byte) host});
+            clientManager.handleClient(address, FIRST_PORT + i % PORTS_PER_ADDRESS);
+        }
+        long setupTime = System.currentTimeMillis() - startTime;
+        Thread.sleep(1000);
+
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heap = usedHeap();
+        System.err.println(String.format(
+            "Mode: %s, Sessions: %d, Setup: %dms, Live threads: %d (+%d), Heap used: %.1fMB (+%.1fMB)",
+            virtualThreads ? "virtual threads" : "platform threads", sessions, setupTime,
+            threads, threads - baselineThreads,
+            heap / 1048576.0, (heap - baselineHeap) / 1048576.0));
+
+        clientManager.stopAll();
+        socket.close();
+        System.exit(0);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
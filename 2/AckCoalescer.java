@@ -0,0 +1,71 @@
+/*
+ * Delayed ACKs for a receiving ServerThread. In-order packets are acknowledged cumulatively
+ * once every ackEvery packets, or when the oldest unacknowledged one has waited maxDelay
+ * milliseconds. With maxDelay = 0 an ACK is held only while more packets are already queued,
+ * so a lone interactive packet is acknowledged at once and only bulk bursts are coalesced.
+ * Callers still acknowledge out-of-order packets immediately so the sender's duplicate-ACK
+ * and SACK recovery is not slowed down.
+ */
+public class AckCoalescer {
+    private static final int DEFAULT_ACK_EVERY = Integer.getInteger("rdt.ack.every", 4);
+    private static final long DEFAULT_MAX_DELAY = Long.getLong("rdt.ack.maxDelay", 0);
+
+    private final int ackEvery;
+    private final long maxDelay;
+    private int pending = 0;
+    private long firstPendingTime = 0;
+
+    public AckCoalescer() {
+        this(DEFAULT_ACK_EVERY, DEFAULT_MAX_DELAY);
+    }
+
+    public AckCoalescer(int ackEvery, long maxDelay) {
+        if (ackEvery < 1) {
+            throw new IllegalArgumentException("ACK frequency must be at least 1");
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("ACK delay must not be negative");
+        }
+        this.ackEvery = ackEvery;
+        this.maxDelay = maxDelay;
+    }
+
+    // Records an in-order packet; returns true when the cumulative ACK covering it is due now
+    public boolean onInOrder(long now, boolean moreQueued) {
+        if (pending++ == 0) {
+            firstPendingTime = now;
+        }
+        if (pending >= ackEvery) {
+            return true;
+        }
+        return maxDelay == 0 ? !moreQueued : now - firstPendingTime >= maxDelay;
+    }
+
+    public boolean isDue(long now) {
+        return pending > 0 && now - firstPendingTime >= maxDelay;
+    }
+
+    // How long the receive loop may block before a held ACK has to go out
+    public long pollTimeout(long now, long idleTimeout) {
+        if (pending == 0) {
+            return idleTimeout;
+        }
+        return Math.max(0, Math.min(idleTimeout, firstPendingTime + maxDelay - now));
+    }
+
+    public boolean hasPending() {
+        return pending > 0;
+    }
+
+    public void onAckSent() {
+        pending = 0;
+    }
+
+    public int getAckEvery() {
+        return ackEvery;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+}
@@ -1,36 +1,136 @@
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class Client2 {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 5000;
     private static final int BUFFER_SIZE = 1024;
-    private static final int TIMEOUT = 5000;
 
     private DatagramSocket socket;
     private InetAddress serverAddress;
     private int sequenceNumber;
+    private final RtoEstimator rtoEstimator;
+    private AsyncSender asyncSender;
+    private final RDTProtocol rdtProtocol;
+    private final MessageBatcher batcher;
+    private final Object sendLock = new Object();
+    // Bumped whenever a batch is flushed or a timer armed; a linger timer acts only while it matches
+    private long lingerGeneration = 0;
     
     private static final int BURST_SIZE = 5;
     private static final int BURST_DELAY = 100; 
     private static final int INTER_BURST_DELAY = 2000; 
 
     public Client2() throws SocketException, UnknownHostException {
+        this(1);
+    }
+
+    public Client2(int windowSize) throws SocketException, UnknownHostException {
+        this(windowSize, null);
+    }
+
+    // A non-null batcher enables submit()/flush(), which pack small messages into shared datagrams
+    public Client2(int windowSize, MessageBatcher batcher) throws SocketException, UnknownHostException {
         socket = new DatagramSocket();
-        socket.setSoTimeout(TIMEOUT);
         serverAddress = InetAddress.getByName(SERVER_ADDRESS);
         sequenceNumber = 0;
+        rdtProtocol = new RDTProtocol(socket, "Client2", windowSize);
+        rtoEstimator = rdtProtocol.getRtoEstimator();
+        this.batcher = batcher;
     }
 
     public boolean sendMessage(String message) {
-        try {
-            Packet packet = new Packet(
+        return send(new Packet(
+            Packet.PacketType.DATA,
+            sequenceNumber,
+            message.getBytes()
+        ));
+    }
+
+    /*
+     * Queues the message and sends the current batch once it is full or has lingered long enough.
+     * The first message of a batch arms a timer, so the batch still goes out on time if nothing
+     * else is submitted after it. The batcher is fed the same monotonic clock the TimerWheel runs
+     * on, so a step in the wall clock can neither strand a batch nor flush it early.
+     */
+    public boolean submit(String message) {
+        if (batcher == null) {
+            return sendMessage(message);
+        }
+        synchronized (sendLock) {
+            byte[] bytes = message.getBytes();
+            long now = monotonicMillis();
+            boolean success = true;
+            if (!batcher.add(bytes, now)) {
+                success = flush();
+                if (!batcher.add(bytes, now)) {
+                    return sendMessage(message) && success;
+                }
+            }
+            if (batcher.isDue(now)) {
+                success &= flush();
+            } else if (batcher.getMessageCount() == 1) {
+                armLingerTimer(batcher.getDeadline() - now);
+            }
+            return success;
+        }
+    }
+
+    public boolean flush() {
+        synchronized (sendLock) {
+            if (batcher == null || batcher.isEmpty()) {
+                return true;
+            }
+            lingerGeneration++;
+            return send(new Packet(
                 Packet.PacketType.DATA,
                 sequenceNumber,
-                message.getBytes()
-            );
+                batcher.drain()
+            ).withBatch());
+        }
+    }
+
+    // The flush waits for its ACK, so it runs off the timer thread rather than stalling every other timeout
+    private void armLingerTimer(long delay) {
+        long generation = ++lingerGeneration;
+        TimerWheel.shared().schedule(() -> CompletableFuture.runAsync(() -> flushIfDue(generation)),
+                                     Math.max(1, delay), TimeUnit.MILLISECONDS);
+    }
 
+    // A batch flushed early by submit() or flush() leaves its timer behind; that timer then finds its generation gone
+    private void flushIfDue(long generation) {
+        synchronized (sendLock) {
+            if (generation != lingerGeneration || batcher.isEmpty()) {
+                return;
+            }
+            long now = monotonicMillis();
+            if (!batcher.isDue(now)) {
+                // Not due yet, e.g. a clock read before the timer was armed: wait out the rest rather than strand the batch
+                armLingerTimer(batcher.getDeadline() - now);
+            } else if (!flush()) {
+                System.out.println("Client2 batch send failed");
+            }
+        }
+    }
+
+    private static long monotonicMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private boolean send(Packet packet) {
+        synchronized (sendLock) {
+            return sendAndAwaitAck(packet);
+        }
+    }
+
+    private boolean sendAndAwaitAck(Packet packet) {
+        try {
             byte[] sendData = packet.toBytes();
             DatagramPacket sendPacket = new DatagramPacket(
                 sendData,
@@ -43,20 +143,30 @@ public class Client2 {
             int maxAttempts = 3;
             
             while (attempts < maxAttempts) {
+                socket.setSoTimeout((int) rtoEstimator.getRto());
+                long sendTime = System.currentTimeMillis();
                 try {
                     socket.send(sendPacket);
                     
                     byte[] receiveData = new byte[BUFFER_SIZE];
                     DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                    socket.receive(receivePacket);
-
-                    Packet response = Packet.fromBytes(
-                        Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                    );
+                    Packet response;
+                    // A stale ACK (a duplicate, or from a session the server restarted) is skipped rather than
+                    // answered with a resend, so the attempt still ends at the timeout
+                    do {
+                        socket.receive(receivePacket);
+                        response = Packet.fromBytes(
+                            Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
+                        );
+                    } while (response.getType() == Packet.PacketType.ACK &&
+                             response.getSequenceNumber() != sequenceNumber);
 
                     if (response.getType() == Packet.PacketType.ACK &&
                         response.getSequenceNumber() == sequenceNumber) {
-                        sequenceNumber = (sequenceNumber + 1) % 2;
+                        if (attempts == 0) {
+                            rtoEstimator.sample(System.currentTimeMillis() - sendTime);
+                        }
+                        sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, 1);
                         return true;
                     } else if (response.getType() == Packet.PacketType.NACK) {
                         System.out.println("Client2 received NACK, retrying...");
@@ -65,33 +175,122 @@ public class Client2 {
                     }
 
                 } catch (SocketTimeoutException e) {
+                    rtoEstimator.backoff();
                     System.out.println("Client2 timeout, retrying... (Attempt " + (attempts + 1) + " of " + maxAttempts + ")");
                     attempts++;
                 }
             }
             return false;
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Client2 error: " + e.getMessage());
             return false;
         }
     }
 
+    public int sendBurst(String[] messages) {
+        List<byte[]> payloads = new ArrayList<>();
+        for (String message : messages) {
+            payloads.add(message.getBytes());
+        }
+
+        try {
+            int delivered = rdtProtocol.sendWindowed(payloads, sequenceNumber, serverAddress, SERVER_PORT);
+            sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, delivered);
+            return delivered;
+        } catch (IOException e) {
+            System.err.println("Client2 error: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Pipelined alternative to sendMessage(): returns without waiting for the ACK (blocking only while
+    // the in-flight limit is reached) and completes with the receipt. Uses its own socket and session.
+    public CompletableFuture<DeliveryReceipt> sendAsync(ByteBuffer message) {
+        try {
+            return asyncSender().sendAsync(message);
+        } catch (SocketException e) {
+            return AsyncSender.failed(e);
+        }
+    }
+
+    private synchronized AsyncSender asyncSender() throws SocketException {
+        if (asyncSender == null) {
+            asyncSender = new AsyncSender(serverAddress, SERVER_PORT, true);
+        }
+        return asyncSender;
+    }
+
+    public long getCurrentRto() {
+        return rtoEstimator.getRto();
+    }
+
     public void close() {
+        flush();
+        synchronized (this) {
+            if (asyncSender != null) {
+                asyncSender.close();
+            }
+        }
+        rdtProtocol.stop();
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
     }
 
     public static void main(String[] args) {
+        // "--window N" sends each burst with Go-Back-N instead of one message per round trip;
+        // "--batch MS" packs messages into shared datagrams, lingering at most MS milliseconds
+        int windowSize = 1;
+        MessageBatcher batcher = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--window")) {
+                windowSize = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--batch")) {
+                batcher = new MessageBatcher(Long.parseLong(args[i + 1]));
+            }
+        }
+
         try {
-            Client2 client = new Client2();
+            Client2 client = new Client2(windowSize, batcher);
 
             String[] testMessages = {
                 "Burst1_Message1", "Burst1_Message2", "Burst1_Message3", "Burst1_Message4", "Burst1_Message5",
                 "Burst2_Message1", "Burst2_Message2", "Burst2_Message3", "Burst2_Message4", "Burst2_Message5"
             };
 
+            if (batcher != null) {
+                for (int i = 0; i < testMessages.length; i++) {
+                    System.out.println("Client2 queueing: " + testMessages[i]);
+                    boolean success = client.submit(testMessages[i]);
+
+                    if ((i + 1) % BURST_SIZE == 0) {
+                        success &= client.flush();
+                        System.out.println("Client2 batch send " + (success ? "successful" : "failed"));
+                        Thread.sleep(INTER_BURST_DELAY);
+                    } else {
+                        if (!success) {
+                            System.out.println("Client2 batch send failed");
+                        }
+                        Thread.sleep(BURST_DELAY);
+                    }
+                }
+                client.close();
+                return;
+            }
+
+            if (windowSize > 1) {
+                for (int i = 0; i < testMessages.length; i += BURST_SIZE) {
+                    String[] burst = Arrays.copyOfRange(testMessages, i, Math.min(i + BURST_SIZE, testMessages.length));
+                    System.out.println("Client2 sending burst of " + burst.length + " (window " + windowSize + ")");
+                    int delivered = client.sendBurst(burst);
+                    System.out.println("Client2 burst delivered " + delivered + " of " + burst.length);
+                    Thread.sleep(INTER_BURST_DELAY);
+                }
+                client.close();
+                return;
+            }
+
             for (int i = 0; i < testMessages.length; i++) {
                 System.out.println("Client2 sending: " + testMessages[i]);
                 boolean success = client.sendMessage(testMessages[i]);
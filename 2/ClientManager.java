@@ -1,43 +1,227 @@
+import java.lang.reflect.Method;
 import java.net.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientManager {
-    private final ConcurrentHashMap<String, ServerThread> clients;
+    // -Drdt.session.idleTimeout (ms) and -Drdt.session.max bound how long and how many sessions are kept
+    private static final long DEFAULT_IDLE_TIMEOUT = Long.getLong("rdt.session.idleTimeout", 60000);
+    private static final int DEFAULT_MAX_SESSIONS = Integer.getInteger("rdt.session.max", 4096);
+    // IPv4 endpoints pack into the low 48 bits; other endpoints get numbered keys above that range
+    private static final long OVERFLOW_KEY_BASE = 1L << 48;
+    /*
+     * OpenJDK's Inet4Address.hashCode() is the address itself, which spares getAddress() copying the
+     * octets for every packet. The spec does not promise that, so it is checked once here and a JVM
+     * that hashes differently gets the copying path; two clients can never share a key either way.
+     */
+    private static final boolean IPV4_HASH_IS_ADDRESS = ipv4HashIsAddress();
+
+    private final SessionTable<ServerThread> clients;
+    private final Map<InetSocketAddress, Long> overflowKeys = new HashMap<>();
+    private final Map<Long, InetSocketAddress> overflowEndpoints = new HashMap<>();
+    private long nextOverflowKey = OVERFLOW_KEY_BASE;
+    private final long idleTimeout;
+    private final long sweepInterval;
+    private long lastSweep;
     private final DatagramSocket serverSocket;
+    private final ExecutorService sessionExecutor;
+    private final AtomicLong routedPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private long evictedSessions = 0;
+    private int peakSessions = 0;
 
     public ClientManager(DatagramSocket serverSocket) {
+        this(serverSocket, null);
+    }
+
+    // With an executor each session's run() is submitted to it instead of starting its own platform thread
+    public ClientManager(DatagramSocket serverSocket, ExecutorService sessionExecutor) {
+        this(serverSocket, sessionExecutor, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_SESSIONS);
+    }
+
+    public ClientManager(DatagramSocket serverSocket, ExecutorService sessionExecutor,
+                         long idleTimeout, int maxSessions) {
         this.serverSocket = serverSocket;
-        this.clients = new ConcurrentHashMap<>();
+        this.clients = new SessionTable<>(maxSessions);
+        this.sessionExecutor = sessionExecutor;
+        this.idleTimeout = idleTimeout;
+        this.sweepInterval = Math.max(1, Math.min(idleTimeout / 4, 1000));
     }
 
-    public void handleClient(InetAddress clientAddress, int clientPort) {
-        String clientKey = getClientKey(clientAddress, clientPort);
-        
-        if (!clients.containsKey(clientKey)) {
-            ServerThread clientThread = new ServerThread(serverSocket, clientAddress, clientPort);
-            clients.put(clientKey, clientThread);
-            clientThread.start();
-            System.out.println("New client connected: " + clientKey);
+    // Looked up reflectively so the sources still build for Java 8; needs a Java 21+ runtime
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
         }
     }
 
-    public void removeClient(InetAddress clientAddress, int clientPort) {
-        String clientKey = getClientKey(clientAddress, clientPort);
-        ServerThread clientThread = clients.remove(clientKey);
+    public synchronized ServerThread handleClient(InetAddress clientAddress, int clientPort) {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep >= sweepInterval) {
+            evictIdle(now);
+            lastSweep = now;
+        }
+
+        long clientKey = getClientKey(clientAddress, clientPort);
+        ServerThread clientThread = clients.get(clientKey, now);
+        if (clientThread == null) {
+            if (clients.isFull()) {
+                evict(clients.eldestKey(), "capacity");
+            }
+            clientThread = new ServerThread(serverSocket, clientAddress, clientPort);
+            clients.put(clientKey, clientThread, now);
+            peakSessions = Math.max(peakSessions, clients.size());
+            Runnable session = sessionOf(clientKey, clientThread);
+            if (sessionExecutor != null) {
+                sessionExecutor.execute(session);
+            } else {
+                new Thread(session, clientThread.getName()).start();
+            }
+            System.out.println("New client connected: " + clientAddress.getHostAddress() + ":" + clientPort);
+        }
+        return clientThread;
+    }
+
+    // A session that ends on its own leaves the table, so the client's next packet starts a new one
+    private Runnable sessionOf(long clientKey, ServerThread clientThread) {
+        return () -> {
+            try {
+                clientThread.run();
+            } finally {
+                sessionEnded(clientKey, clientThread);
+            }
+        };
+    }
+
+    private synchronized void sessionEnded(long clientKey, ServerThread clientThread) {
+        // Eviction may already have removed it, and the key may since belong to a new session
+        if (clients.peek(clientKey) == clientThread) {
+            release(clientKey);
+        }
+    }
+
+    // Hands a decoded packet to the session that owns the endpoint; the server's receive loop is the only reader of the socket
+    public boolean dispatch(Packet packet, InetAddress clientAddress, int clientPort) {
+        ServerThread clientThread = handleClient(clientAddress, clientPort);
+        if (clientThread.deliver(packet)) {
+            routedPackets.incrementAndGet();
+            return true;
+        }
+        droppedPackets.incrementAndGet();
+        return false;
+    }
+
+    public long getRoutedPackets() {
+        return routedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public synchronized int getLiveSessions() {
+        return clients.size();
+    }
+
+    public synchronized long getEvictedSessions() {
+        return evictedSessions;
+    }
+
+    public synchronized int getPeakSessions() {
+        return peakSessions;
+    }
+
+    public synchronized void removeClient(InetAddress clientAddress, int clientPort) {
+        ServerThread clientThread = release(getClientKey(clientAddress, clientPort));
+        if (clientThread != null) {
+            clientThread.stopThread();
+            System.out.println("Client disconnected: " + clientAddress.getHostAddress() + ":" + clientPort);
+        }
+    }
+
+    // Sessions are ordered by last use, so the idle ones are all at the eldest end
+    private void evictIdle(long now) {
+        while (!clients.isEmpty() && now - clients.eldestLastSeen() >= idleTimeout) {
+            evict(clients.eldestKey(), "idle");
+        }
+    }
+
+    private void evict(long clientKey, String reason) {
+        String endpoint = describeKey(clientKey);
+        ServerThread clientThread = release(clientKey);
         if (clientThread != null) {
             clientThread.stopThread();
-            System.out.println("Client disconnected: " + clientKey);
+            evictedSessions++;
+            System.out.println("Client session evicted (" + reason + "): " + endpoint);
+        }
+    }
+
+    private ServerThread release(long clientKey) {
+        if (clientKey >= OVERFLOW_KEY_BASE) {
+            InetSocketAddress endpoint = overflowEndpoints.remove(clientKey);
+            if (endpoint != null) {
+                overflowKeys.remove(endpoint);
+            }
+        }
+        return clients.remove(clientKey);
+    }
+
+    private long getClientKey(InetAddress address, int port) {
+        if (address instanceof Inet4Address) {
+            long ip = (IPV4_HASH_IS_ADDRESS ? address.hashCode() : ipv4ToInt(address.getAddress())) & 0xFFFFFFFFL;
+            return (ip << 16) | (port & 0xFFFF);
+        }
+        InetSocketAddress endpoint = new InetSocketAddress(address, port);
+        Long key = overflowKeys.get(endpoint);
+        if (key == null) {
+            key = nextOverflowKey++;
+            overflowKeys.put(endpoint, key);
+            overflowEndpoints.put(key, endpoint);
         }
+        return key;
     }
 
-    private String getClientKey(InetAddress address, int port) {
-        return address.getHostAddress() + ":" + port;
+    private static int ipv4ToInt(byte[] octets) {
+        return ((octets[0] & 0xFF) << 24) | ((octets[1] & 0xFF) << 16) | ((octets[2] & 0xFF) << 8) | (octets[3] & 0xFF);
     }
 
-    public void stopAll() {
-        for (ServerThread thread : clients.values()) {
-            thread.stopThread();
+    // Probes addresses with the high bit set and clear, and with every octet distinct
+    private static boolean ipv4HashIsAddress() {
+        byte[][] probes = {{127, 0, 0, 1}, {(byte) 203, 0, 113, (byte) 200}, {10, (byte) 255, 1, (byte) 128}};
+        try {
+            for (byte[] octets : probes) {
+                if (InetAddress.getByAddress(octets).hashCode() != ipv4ToInt(octets)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UnknownHostException e) {
+            return false;
         }
+    }
+
+    private String describeKey(long clientKey) {
+        if (clientKey >= OVERFLOW_KEY_BASE) {
+            InetSocketAddress endpoint = overflowEndpoints.get(clientKey);
+            return endpoint != null ? endpoint.getAddress().getHostAddress() + ":" + endpoint.getPort() : "unknown";
+        }
+        long ip = clientKey >>> 16;
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." +
+               (ip & 0xFF) + ":" + (clientKey & 0xFFFF);
+    }
+
+    public synchronized void stopAll() {
+        clients.forEach(ServerThread::stopThread);
         clients.clear();
+        overflowKeys.clear();
+        overflowEndpoints.clear();
+        if (sessionExecutor != null) {
+            sessionExecutor.shutdown();
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+/*
+ * Sender-side congestion control for RDTProtocol's windowed modes. The protocol asks for the
+ * congestion window before it sends anything new and reports every ACK, duplicate-ACK loss and
+ * timeout back. ACKs carry their RTT sample (or NO_RTT_SAMPLE under Karn's rule), so a
+ * delay-based algorithm can be plugged in alongside the default loss-based RenoCongestionController.
+ * Calls come from the one thread driving a transfer.
+ */
+public interface CongestionController {
+    long NO_RTT_SAMPLE = -1;
+
+    // Congestion window in packets, never below 1
+    int getWindow();
+
+    int getSlowStartThreshold();
+
+    // newlyAcked packets left the window with this ACK
+    void onAck(int newlyAcked, long rttMillis);
+
+    // Loss inferred from duplicate ACKs or SACK holes; the sender fast-retransmits
+    void onDuplicateAckLoss();
+
+    // Retransmission timer expired
+    void onTimeout();
+
+    String getName();
+}
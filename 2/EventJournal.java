@@ -0,0 +1,134 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Compact binary alternative to the text log. Every record starts with a fixed 26-byte header:
+ *
+ *   type:1 packetType:1 transaction:4 sequence:4 timestampNanos:8 rttNanos:8
+ *
+ * NAME and NOTE records are followed by length:2 and that many UTF-8 bytes. A NAME record maps a
+ * transaction number to its id ("T1", "S2", ...) the first time it is used, so packet records
+ * never carry strings. Records are staged in a direct buffer and appended through a FileChannel
+ * when it fills, on flush() and at shutdown. JournalDecoder turns a journal back into text or CSV.
+ */
+public class EventJournal {
+    public static final byte NAME = 0;
+    public static final byte PACKET_SENT = 1;
+    public static final byte PACKET_RECEIVED = 2;
+    public static final byte PACKET_RETRANSMITTED = 3;
+    public static final byte PACKET_DROPPED = 4;
+    public static final byte NOTE = 5;
+    public static final int RECORD_SIZE = 26;
+    public static final byte NO_PACKET_TYPE = -1;
+    public static final long NO_RTT = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // A text record must fit the staging buffer whole, header and length prefix included
+    private static final int MAX_TEXT_BYTES = BUFFER_SIZE - RECORD_SIZE - 2;
+    private static final Map<String, EventJournal> journals = new HashMap<>();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<String, Integer> transactions = new HashMap<>();
+    private final long epochNanos = System.currentTimeMillis() * 1000000L;
+    private final long startNanos = System.nanoTime();
+
+    // Loggers that write to the same journal share one instance so records are never interleaved
+    public static synchronized EventJournal forFile(String journalFile) throws IOException {
+        EventJournal journal = journals.get(journalFile);
+        if (journal == null) {
+            journal = new EventJournal(journalFile);
+            journals.put(journalFile, journal);
+        }
+        return journal;
+    }
+
+    private EventJournal(String journalFile) throws IOException {
+        channel = FileChannel.open(Paths.get(journalFile),
+                                   StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    public synchronized void logPacket(byte type, String transactionId, Packet packet, long rttMillis) {
+        int transaction = transactionNumber(transactionId);
+        ensureCapacity(RECORD_SIZE);
+        putHeader(type, (byte) packet.getType().ordinal(), transaction, packet.getSequenceNumber(),
+                  rttMillis == NO_RTT ? NO_RTT : rttMillis * 1000000L);
+    }
+
+    public synchronized void logNote(String transactionId, String event, String details) {
+        int transaction = transactionNumber(transactionId);
+        putText(NOTE, transaction, event + " - " + details);
+    }
+
+    public synchronized void flush() {
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to journal: " + e.getMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    public synchronized void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    private int transactionNumber(String transactionId) {
+        Integer number = transactions.get(transactionId);
+        if (number == null) {
+            number = transactions.size();
+            transactions.put(transactionId, number);
+            putText(NAME, number, transactionId);
+        }
+        return number;
+    }
+
+    private void putText(byte type, int transaction, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length > MAX_TEXT_BYTES) {
+            // Cut before the character that straddles the limit, so the truncated text still decodes
+            length = MAX_TEXT_BYTES;
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+        }
+        ensureCapacity(RECORD_SIZE + 2 + length);
+        putHeader(type, NO_PACKET_TYPE, transaction, 0, NO_RTT);
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private void putHeader(byte type, byte packetType, int transaction, int sequenceNumber, long rttNanos) {
+        buffer.put(type);
+        buffer.put(packetType);
+        buffer.putInt(transaction);
+        buffer.putInt(sequenceNumber);
+        buffer.putLong(epochNanos + (System.nanoTime() - startNanos));
+        buffer.putLong(rttNanos);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -1,21 +1,28 @@
 import java.net.*;
 import java.io.*;
-import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.List;
 
 public class ServerThread extends Thread {
     private final DatagramSocket socket;
     private final InetAddress clientAddress;
     private final int clientPort;
     private final RDTProtocol rdtProtocol;
-    private boolean running;
+    private volatile boolean running;
     private final CommunicationLogger logger;
-    private final String transactionId;
-    private final long startTime;
+    private static final int INBOUND_CAPACITY = 256;
+    private static final long POLL_INTERVAL = 100;
+    private final BlockingQueue<Packet> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
+    private String transactionId;
+    private long startTime;
     private int packetsSent = 0;
     private int packetsReceived = 0;
-    private static final int MAX_SEQUENCE_NUMBER = 2;
+    // Each run of MAX_MESSAGES messages is logged as one transaction; the session itself lasts until evicted
     private static final int MAX_MESSAGES = 5;
-    private int expectedSequenceNumber = 0;
+    // Matches the folder 3 and 4 sessions, so a Go-Back-N burst can queue up behind one cumulative ACK
+    private static final int RECEIVE_WINDOW = 32;
+    private final ReceiveWindow receiveWindow = new ReceiveWindow(RECEIVE_WINDOW);
+    private final AckCoalescer ackCoalescer = new AckCoalescer();
     private int messageCount = 0;
 
     public ServerThread(DatagramSocket socket, InetAddress clientAddress, int clientPort) {
@@ -33,21 +40,12 @@ public class ServerThread extends Thread {
     public void run() {
         try {
             while (running) {
-                byte[] receiveData = new byte[1024];
-                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                socket.receive(receivePacket);
-                
-                if (!receivePacket.getAddress().equals(clientAddress) || 
-                    receivePacket.getPort() != clientPort) {
-                    continue;
-                }
-
-                Packet packet = Packet.fromBytes(
-                    Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                );
-
-                if (packet.getSequenceNumber() != expectedSequenceNumber) {
-                    sendACK((expectedSequenceNumber - 1 + MAX_SEQUENCE_NUMBER) % MAX_SEQUENCE_NUMBER);
+                Packet packet = inbound.poll(ackCoalescer.pollTimeout(System.currentTimeMillis(), POLL_INTERVAL),
+                                             TimeUnit.MILLISECONDS);
+                if (packet == null) {
+                    if (ackCoalescer.isDue(System.currentTimeMillis())) {
+                        sendACK(receiveWindow.getLastInOrder());
+                    }
                     continue;
                 }
 
@@ -56,28 +54,55 @@ public class ServerThread extends Thread {
                     continue;
                 }
 
-                processPacket(packet);
-                expectedSequenceNumber = (expectedSequenceNumber + 1) % MAX_SEQUENCE_NUMBER;
+                List<Packet> delivered = receiveWindow.receive(packet);
+                for (Packet next : delivered) {
+                    processPacket(next);
+                }
+                // Gaps and duplicates are acknowledged at once; the last message of a transaction is never held back
+                boolean inOrder = delivered.size() == 1 && receiveWindow.getBufferedCount() == 0;
+                if (!inOrder || messageCount >= MAX_MESSAGES ||
+                    ackCoalescer.onInOrder(System.currentTimeMillis(), !inbound.isEmpty())) {
+                    sendACK(receiveWindow.getLastInOrder());
+                }
+
+                // The client carries on with the next sequence number, so only the transaction restarts, not the window
+                if (messageCount >= MAX_MESSAGES) {
+                    System.out.println("Received " + messageCount + " messages, starting a new transaction.");
+                    nextTransaction();
+                }
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Error in ServerThread: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             rdtProtocol.stop();
         }
     }
 
-    private void processPacket(Packet packet) throws IOException {
+    private void processPacket(Packet packet) {
         System.out.println("Processing packet " + packet.getSequenceNumber() + 
                          " from client " + clientAddress + ":" + clientPort);
         packetsReceived++;
-        messageCount++;
+        messageCount += processMessages(packet);
         logger.logPacketReceived(transactionId, packet);
-        
-        sendACK(packet.getSequenceNumber());
-        
-        if (messageCount >= MAX_MESSAGES) {
-            System.out.println("Received " + MAX_MESSAGES + " messages, stopping thread.");
-            stopThread();
+    }
+
+    // A batched packet carries several length-prefixed messages, and each one counts toward MAX_MESSAGES
+    private int processMessages(Packet packet) {
+        if (!packet.isBatch()) {
+            return 1;
+        }
+        try {
+            List<byte[]> messages = MessageBatcher.unpack(packet.getData());
+            for (int i = 0; i < messages.size(); i++) {
+                System.out.println("  Message " + (i + 1) + " of " + messages.size() + ": " +
+                                   new String(messages.get(i)));
+            }
+            return messages.size();
+        } catch (ProtocolException e) {
+            System.err.println("Malformed batch " + packet.getSequenceNumber() + ": " + e.getMessage());
+            return 0;
         }
     }
 
@@ -86,13 +111,12 @@ public class ServerThread extends Thread {
             Packet.PacketType.ACK,
             sequenceNumber,
             null
-        );
+        ).withReceiveWindow(advertisedWindow());
         
-        for (int i = 0; i < 2; i++) {
-            rdtProtocol.sendPacket(ackPacket, clientAddress, clientPort);
-            packetsSent++;
-            logger.logPacketSent(transactionId, ackPacket);
-        }
+        rdtProtocol.sendControl(ackPacket, clientAddress, clientPort);
+        packetsSent++;
+        logger.logPacketSent(transactionId, ackPacket);
+        ackCoalescer.onAckSent();
     }
 
     private void sendNACK(int sequenceNumber) throws IOException {
@@ -102,10 +126,32 @@ public class ServerThread extends Thread {
             null
         );
         
-        rdtProtocol.sendPacket(nackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(nackPacket, clientAddress, clientPort);
+    }
+
+    // Flow control: advertise what the inbound queue can still hold, capped by how far ahead the reorder buffer reaches
+    private int advertisedWindow() {
+        return Math.min(inbound.remainingCapacity(), receiveWindow.getCapacity());
+    }
+
+    public boolean deliver(Packet packet) {
+        return running && inbound.offer(packet);
+    }
+
+    private synchronized void nextTransaction() {
+        if (!running) {
+            return;
+        }
+        logger.endTransaction(transactionId, clientAddress.getHostAddress(),
+                             clientPort, startTime, packetsSent, packetsReceived);
+        startTime = System.currentTimeMillis();
+        transactionId = logger.startTransaction(clientAddress.getHostAddress(), clientPort);
+        packetsSent = 0;
+        packetsReceived = 0;
+        messageCount = 0;
     }
 
-    public void stopThread() {
+    public synchronized void stopThread() {
         running = false;
         logger.endTransaction(transactionId, clientAddress.getHostAddress(), 
                              clientPort, startTime, packetsSent, packetsReceived);
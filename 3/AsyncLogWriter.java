@@ -0,0 +1,202 @@
+import java.io.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Asynchronous back end for CommunicationLogger. Callers only capture the event and publish it to a
+ * LogRingBuffer; a single writer thread for the whole process formats the lines, appends them to
+ * the file each event names and flushes once per drained batch. The most recently used files stay
+ * open, up to MAX_OPEN_FILES. The writer parks while the buffer is empty and the producer that
+ * finds it asleep wakes it. What happens when the buffer is full is set by the policy.
+ */
+public class AsyncLogWriter {
+    public enum OverflowPolicy {
+        DROP,   // discard the new event
+        BLOCK,  // park the caller until the writer frees a slot
+        SAMPLE  // above 3/4 full keep only one event in SAMPLE_RATE, drop the rest
+    }
+
+    private static final int SAMPLE_RATE = 8;
+    private static final long BLOCK_PARK_NANOS = 100000;
+    private static final int MAX_OPEN_FILES = 16;
+    private static AsyncLogWriter sharedWriter;
+
+    private final LogRingBuffer<LogRecord> ringBuffer;
+    private final OverflowPolicy policy;
+    private final boolean echo;
+    private final Thread writerThread;
+    private final AtomicLong publishedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile boolean sleeping = false;
+
+    private static class LogRecord {
+        final String logFile;
+        final long timestamp;
+        final String transactionId;
+        final String event;
+        final String details;
+
+        LogRecord(String logFile, long timestamp, String transactionId, String event, String details) {
+            this.logFile = logFile;
+            this.timestamp = timestamp;
+            this.transactionId = transactionId;
+            this.event = event;
+            this.details = details;
+        }
+    }
+
+    // Every logger in the process shares one writer and thread; the first caller's settings apply
+    public static synchronized AsyncLogWriter shared(int capacity, OverflowPolicy policy, boolean echo) {
+        if (sharedWriter == null) {
+            sharedWriter = new AsyncLogWriter(capacity, policy, echo);
+        }
+        return sharedWriter;
+    }
+
+    private AsyncLogWriter(int capacity, OverflowPolicy policy, boolean echo) {
+        this.ringBuffer = new LogRingBuffer<>(capacity);
+        this.policy = policy;
+        this.echo = echo;
+        this.writerThread = new Thread(this::drain, "log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    public void publish(String logFile, String transactionId, String event, String details) {
+        LogRecord record = new LogRecord(logFile, System.currentTimeMillis(), transactionId, event, details);
+
+        if (policy == OverflowPolicy.SAMPLE &&
+            ringBuffer.size() >= ringBuffer.capacity() * 3 / 4 &&
+            sampleCounter.getAndIncrement() % SAMPLE_RATE != 0) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        while (!ringBuffer.offer(record)) {
+            if (policy != OverflowPolicy.BLOCK || !running) {
+                droppedEvents.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        publishedEvents.incrementAndGet();
+        if (sleeping) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    public long getPublishedEvents() {
+        return publishedEvents.get();
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    public int getBacklog() {
+        return ringBuffer.size();
+    }
+
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        Map<String, StringBuilder> batches = new LinkedHashMap<>();
+        Map<String, BufferedWriter> openFiles = new LinkedHashMap<>(MAX_OPEN_FILES, 0.75f, true);
+        try {
+            while (true) {
+                LogRecord record = ringBuffer.poll();
+                if (record != null) {
+                    format(record, batches.computeIfAbsent(record.logFile, file -> new StringBuilder()));
+                    continue;
+                }
+                if (!batches.isEmpty()) {
+                    writeBatches(batches, openFiles);
+                    batches.clear();
+                }
+                if (!running && ringBuffer.size() == 0) {
+                    return;
+                }
+                // Set before the emptiness check so a producer that publishes in between sees it and unparks us
+                sleeping = true;
+                if (running && ringBuffer.size() == 0) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+            }
+        } finally {
+            for (BufferedWriter writer : openFiles.values()) {
+                closeQuietly(writer);
+            }
+        }
+    }
+
+    private void writeBatches(Map<String, StringBuilder> batches, Map<String, BufferedWriter> openFiles) {
+        for (Map.Entry<String, StringBuilder> batch : batches.entrySet()) {
+            try {
+                BufferedWriter writer = openFiles.get(batch.getKey());
+                if (writer == null) {
+                    writer = new BufferedWriter(new FileWriter(batch.getKey(), true));
+                    openFiles.put(batch.getKey(), writer);
+                    closeLeastRecentlyUsed(openFiles);
+                }
+                writer.write(batch.getValue().toString());
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Error writing to log file: " + e.getMessage());
+                closeQuietly(openFiles.remove(batch.getKey()));
+            }
+            if (echo) {
+                System.out.print(batch.getValue());
+            }
+        }
+    }
+
+    private static void closeLeastRecentlyUsed(Map<String, BufferedWriter> openFiles) {
+        Iterator<BufferedWriter> eldest = openFiles.values().iterator();
+        while (openFiles.size() > MAX_OPEN_FILES) {
+            closeQuietly(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static void closeQuietly(Writer writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Error closing log file: " + e.getMessage());
+        }
+    }
+
+    private static void format(LogRecord record, StringBuilder out) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp), ZoneId.systemDefault());
+        out.append('[').append(time.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("] [")
+           .append(record.transactionId).append("] ")
+           .append(record.event).append(" - ")
+           .append(record.details).append(System.lineSeparator());
+    }
+}
@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Pipelined sender behind the clients' sendAsync(). A message is transmitted as soon as it is
+ * submitted and its future completes when the receiver thread sees the ACK, so the caller never
+ * waits on a socket timeout. Every packet has its own retransmission timer on the shared
+ * TimerWheel; a packet still unacknowledged after MAX_RETRIES resends fails its message.
+ *
+ * At most maxInFlight packets are queued or unacknowledged at once. sendAsync() blocks only while
+ * that limit is reached, which is what pushes back on a producer that outruns the network. How many
+ * of them are actually on the wire follows the congestion window and the receiver's advertised
+ * window, as in RDTProtocol. The sender owns its socket, so it gets its own server session and
+ * sequence space. With cumulativeAcks an ACK also covers every earlier packet (the windowed
+ * ServerThreads); without it an ACK covers exactly its own sequence number, as folder 1's
+ * ServerThread sends them.
+ */
+public class AsyncSender {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    private static final int MAX_RETRIES = 5;
+
+    private static class Message {
+        final CompletableFuture<DeliveryReceipt> future = new CompletableFuture<>();
+        final InFlight[] packets;
+        final int bytes;
+        int remaining;
+        int retries;
+        long rttMillis;
+        Throwable failure;
+
+        Message(int packetCount, int bytes) {
+            this.packets = new InFlight[packetCount];
+            this.bytes = bytes;
+            this.remaining = packetCount;
+        }
+    }
+
+    private static class InFlight {
+        final Packet packet;
+        final Message message;
+        long sendTime;
+        int retries;
+        TimerWheel.Timeout timeout;
+        boolean sent;
+        boolean done;
+
+        InFlight(Packet packet, Message message) {
+            this.packet = packet;
+            this.message = message;
+        }
+    }
+
+    private final DatagramSocket socket;
+    private final InetAddress address;
+    private final int port;
+    private final boolean cumulativeAcks;
+    private final RtoEstimator rtoEstimator;
+    private final CongestionController congestion;
+    private final TimerWheel timer;
+    private final Semaphore slots;
+    // Unacknowledged packets in sequence order: ring[head] carries baseSequenceNumber
+    private final InFlight[] ring;
+    private int head = 0;
+    private int count = 0;
+    private int baseSequenceNumber = 0;
+    private int nextSequenceNumber = 0;
+    // Offset from head of the first packet not yet transmitted, and how many transmitted ones await an ACK
+    private int sendOffset = 0;
+    private int outstanding = 0;
+    private int peerWindow = Integer.MAX_VALUE;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    public AsyncSender(InetAddress address, int port, boolean cumulativeAcks) throws SocketException {
+        this(address, port, cumulativeAcks, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AsyncSender(InetAddress address, int port, boolean cumulativeAcks, int maxInFlight)
+            throws SocketException {
+        this(address, port, cumulativeAcks, maxInFlight, new RenoCongestionController());
+    }
+
+    public AsyncSender(InetAddress address, int port, boolean cumulativeAcks, int maxInFlight,
+                       CongestionController congestion) throws SocketException {
+        if (maxInFlight < 1 || maxInFlight >= RDTProtocol.SEQUENCE_SPACE / 2) {
+            throw new IllegalArgumentException("In-flight limit must be between 1 and " +
+                                               (RDTProtocol.SEQUENCE_SPACE / 2 - 1));
+        }
+        this.socket = new DatagramSocket();
+        this.address = address;
+        this.port = port;
+        this.cumulativeAcks = cumulativeAcks;
+        this.rtoEstimator = new RtoEstimator();
+        this.congestion = congestion;
+        this.timer = TimerWheel.shared();
+        this.slots = new Semaphore(maxInFlight);
+        this.ring = new InFlight[maxInFlight];
+        this.receiver = new Thread(this::receiveLoop, "async-sender-" + socket.getLocalPort());
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    // Sends the buffer's remaining bytes (fragmented if they exceed one datagram) without consuming them
+    public CompletableFuture<DeliveryReceipt> sendAsync(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        int packetCount = RDTProtocol.fragmentCount(bytes.length);
+        if (packetCount > ring.length) {
+            return failed(new IllegalArgumentException("Message of " + bytes.length + " bytes needs " + packetCount +
+                                                       " packets, more than the in-flight limit of " + ring.length));
+        }
+        try {
+            slots.acquire(packetCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(e);
+        }
+
+        List<Message> finished = new ArrayList<>();
+        Message message = new Message(packetCount, bytes.length);
+        synchronized (this) {
+            if (!running) {
+                slots.release(packetCount);
+                return failed(new IOException("Sender is closed"));
+            }
+            Packet[] packets = RDTProtocol.buildFragments(bytes, nextSequenceNumber);
+            for (int i = 0; i < packets.length; i++) {
+                InFlight entry = new InFlight(packets[i], message);
+                message.packets[i] = entry;
+                ring[(head + count) % ring.length] = entry;
+                count++;
+                nextSequenceNumber = RDTProtocol.nextSequenceNumber(nextSequenceNumber, 1);
+            }
+            sendAllowed(finished);
+        }
+        complete(finished);
+        return message.future;
+    }
+
+    public synchronized int getInFlight() {
+        return count;
+    }
+
+    public int getMaxInFlight() {
+        return ring.length;
+    }
+
+    public RtoEstimator getRtoEstimator() {
+        return rtoEstimator;
+    }
+
+    public CongestionController getCongestionController() {
+        return congestion;
+    }
+
+    // Fails every message still in flight and releases anyone blocked on the in-flight limit
+    public void close() {
+        List<Message> finished = new ArrayList<>();
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            IOException closed = new IOException("Sender closed before the message was acknowledged");
+            for (int i = 0; i < count; i++) {
+                fail(ring[(head + i) % ring.length].message, closed, finished);
+            }
+            removeCompleted();
+        }
+        socket.close();
+        complete(finished);
+    }
+
+    // Puts queued packets on the wire while the congestion and receive windows leave room; one packet
+    // may always go when none is outstanding, so a zero window is still probed
+    private void sendAllowed(List<Message> finished) {
+        removeCompleted();
+        int allowed = Math.min(congestion.getWindow(), peerWindow);
+        while (sendOffset < count && (outstanding < allowed || outstanding == 0)) {
+            InFlight entry = entryAt(sendOffset++);
+            if (entry.done) {
+                continue;
+            }
+            entry.sent = true;
+            outstanding++;
+            transmit(entry, finished);
+        }
+        removeCompleted();
+    }
+
+    private void transmit(InFlight entry, List<Message> finished) {
+        if (entry.done) {
+            return;
+        }
+        try {
+            byte[] sendData = entry.packet.toBytes();
+            socket.send(new DatagramPacket(sendData, sendData.length, address, port));
+        } catch (IOException e) {
+            fail(entry.message, e, finished);
+            return;
+        }
+        entry.sendTime = System.currentTimeMillis();
+        entry.timeout = timer.schedule(() -> onTimeout(entry), rtoEstimator.getRto(), TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimeout(InFlight entry) {
+        List<Message> finished = new ArrayList<>();
+        synchronized (this) {
+            if (entry.done || !running) {
+                return;
+            }
+            if (entry.retries >= MAX_RETRIES) {
+                fail(entry.message, new IOException("No ACK for packet " + entry.packet.getSequenceNumber() +
+                                                    " after " + MAX_RETRIES + " retries"), finished);
+            } else {
+                // Back off once per loss event: only the oldest packet's timer doubles the RTO
+                if (entry == ring[head]) {
+                    rtoEstimator.backoff();
+                    congestion.onTimeout();
+                }
+                retransmit(entry, finished);
+            }
+            sendAllowed(finished);
+        }
+        complete(finished);
+    }
+
+    private void retransmit(InFlight entry, List<Message> finished) {
+        if (entry.timeout != null) {
+            entry.timeout.cancel();
+        }
+        entry.retries++;
+        entry.message.retries++;
+        transmit(entry, finished);
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = BufferPool.shared().acquire();
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        try {
+            while (running) {
+                datagram.setData(buffer);
+                socket.receive(datagram);
+                Packet response;
+                try {
+                    response = Packet.fromBytes(buffer, 0, datagram.getLength());
+                } catch (IOException e) {
+                    continue;
+                }
+                if (response.isValid() && response.getType() != Packet.PacketType.DATA) {
+                    onResponse(response);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("AsyncSender receive error: " + e.getMessage());
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+            close();
+        }
+    }
+
+    private void onResponse(Packet response) {
+        List<Message> finished = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            // A duplicate ACK for base - 1 still carries fresh SACK bits, so offset -1 is kept
+            int offset = RDTProtocol.distance(baseSequenceNumber, response.getSequenceNumber());
+            if (offset == RDTProtocol.SEQUENCE_SPACE - 1) {
+                offset = -1;
+            }
+            if (offset >= count) {
+                return;
+            }
+            if (response.hasReceiveWindow()) {
+                peerWindow = response.getReceiveWindow();
+            }
+            if (response.getType() == Packet.PacketType.NACK) {
+                if (offset >= 0 && !entryAt(offset).done) {
+                    retransmit(entryAt(offset), finished);
+                }
+            } else {
+                int newlyAcked = 0;
+                long rtt = CongestionController.NO_RTT_SAMPLE;
+                // offset -1 (a duplicate of the last cumulative ACK) acknowledges nothing by itself
+                for (int i = cumulativeAcks ? 0 : Math.max(offset, 0); i <= offset; i++) {
+                    if (acknowledge(entryAt(i), now, finished)) {
+                        newlyAcked++;
+                        rtt = entryAt(i).retries == 0 ? now - entryAt(i).sendTime : rtt;
+                    }
+                }
+                long selectiveAcks = response.getSelectiveAcks();
+                for (int bit = 0; bit < Long.SIZE && selectiveAcks != 0; bit++) {
+                    int index = offset + 2 + bit;
+                    if ((selectiveAcks & (1L << bit)) != 0 && index < count && acknowledge(entryAt(index), now, finished)) {
+                        newlyAcked++;
+                    }
+                }
+                if (newlyAcked > 0) {
+                    congestion.onAck(newlyAcked, rtt);
+                }
+            }
+            sendAllowed(finished);
+        }
+        complete(finished);
+    }
+
+    private InFlight entryAt(int offset) {
+        return ring[(head + offset) % ring.length];
+    }
+
+    private boolean acknowledge(InFlight entry, long now, List<Message> finished) {
+        if (entry.done || !entry.sent) {
+            return false;
+        }
+        entry.done = true;
+        outstanding--;
+        entry.timeout.cancel();
+        long rtt = now - entry.sendTime;
+        // Karn's rule: a retransmitted packet's ACK cannot be matched to one transmission
+        if (entry.retries == 0) {
+            rtoEstimator.sample(rtt);
+        }
+        Message message = entry.message;
+        message.rttMillis = rtt;
+        if (--message.remaining == 0 && message.failure == null) {
+            finished.add(message);
+        }
+        return true;
+    }
+
+    private void fail(Message message, Throwable cause, List<Message> finished) {
+        if (message.failure != null || message.remaining == 0) {
+            return;
+        }
+        message.failure = cause;
+        for (InFlight entry : message.packets) {
+            if (entry != null && !entry.done) {
+                entry.done = true;
+                if (entry.sent) {
+                    outstanding--;
+                }
+                if (entry.timeout != null) {
+                    entry.timeout.cancel();
+                }
+            }
+        }
+        finished.add(message);
+    }
+
+    // Frees the slots of the acknowledged (or abandoned) packets at the front of the window
+    private void removeCompleted() {
+        while (count > 0 && ring[head].done) {
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            if (sendOffset > 0) {
+                sendOffset--;
+            }
+            baseSequenceNumber = RDTProtocol.nextSequenceNumber(baseSequenceNumber, 1);
+            slots.release();
+        }
+    }
+
+    // Futures are completed outside the lock so dependent stages may call sendAsync() again
+    private static void complete(List<Message> finished) {
+        for (Message message : finished) {
+            if (message.failure != null) {
+                message.future.completeExceptionally(message.failure);
+            } else {
+                InFlight first = message.packets[0];
+                message.future.complete(new DeliveryReceipt(first.packet.getSequenceNumber(), message.packets.length,
+                                                            message.bytes, message.rttMillis, message.retries));
+            }
+        }
+    }
+
+    static CompletableFuture<DeliveryReceipt> failed(Throwable cause) {
+        CompletableFuture<DeliveryReceipt> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+}
@@ -1,20 +1,27 @@
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class Client3 {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 5000;
     private static final int BUFFER_SIZE = 1024;
-    private static final int TIMEOUT = 5000;
 
     private DatagramSocket socket;
     private InetAddress serverAddress;
     private int sequenceNumber;
+    private final RDTProtocol rdtProtocol;
+    private final RtoEstimator rtoEstimator;
+    private AsyncSender asyncSender;
 
     private static final int MESSAGE_SIZE = 512; 
+    private static final int DEFAULT_WINDOW = 16;
     private static final int DELAY = 3000; 
 
     private final List<Long> rttMeasurements;
@@ -23,11 +30,15 @@ public class Client3 {
     private final long startTime;
     private int packetsSent = 0;
     private int packetsReceived = 0;
-    private static final int MAX_PACKET_SIZE = 1024 * 64;
+    private int transferCounter = 0;
 
     public Client3() throws SocketException, UnknownHostException {
+        this(DEFAULT_WINDOW);
+    }
+
+    // windowSize bounds how many fragments of a large message are in flight at once
+    public Client3(int windowSize) throws SocketException, UnknownHostException {
         socket = new DatagramSocket();
-        socket.setSoTimeout(TIMEOUT);
         serverAddress = InetAddress.getByName(SERVER_ADDRESS);
         sequenceNumber = 0;
         this.rttMeasurements = new ArrayList<>();
@@ -35,6 +46,8 @@ public class Client3 {
         this.startTime = System.currentTimeMillis();
         this.sessionId = logger.startTransaction(socket.getLocalAddress().getHostAddress(), 
                                                socket.getLocalPort());
+        this.rdtProtocol = new RDTProtocol(socket, sessionId, windowSize);
+        this.rtoEstimator = rdtProtocol.getRtoEstimator();
     }
 
     private String generateLargeMessage(int size, String prefix) {
@@ -47,15 +60,16 @@ public class Client3 {
 
     public boolean sendMessage(String message) {
         try {
-            if (message.getBytes().length > MAX_PACKET_SIZE) {
-                System.err.println("Message too large: " + message.getBytes().length + " bytes");
-                return false;
+            byte[] messageData = message.getBytes();
+            int fragments = RDTProtocol.fragmentCount(messageData.length);
+            if (fragments > 1) {
+                return sendFragmented(messageData, fragments);
             }
 
             Packet packet = new Packet(
                 Packet.PacketType.DATA,
                 sequenceNumber,
-                message.getBytes()
+                messageData
             );
 
             byte[] sendData = packet.toBytes();
@@ -70,6 +84,7 @@ public class Client3 {
             int maxAttempts = 3;
             
             while (attempts < maxAttempts) {
+                socket.setSoTimeout((int) rtoEstimator.getRto());
                 long sendTime = System.currentTimeMillis();
                 socket.send(sendPacket);
                 packetsSent++;
@@ -89,7 +104,10 @@ public class Client3 {
                         long rtt = System.currentTimeMillis() - sendTime;
                         rttMeasurements.add(rtt);
                         packetsReceived++;
-                        sequenceNumber = (sequenceNumber + 1) % 2;
+                        if (attempts == 0) {
+                            rtoEstimator.sample(rtt);
+                        }
+                        sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, 1);
                         System.out.println(String.format("Packet RTT: %dms", rtt));
                         return true;
                     } else if (response.getType() == Packet.PacketType.NACK) {
@@ -104,19 +122,91 @@ public class Client3 {
                     logger.logPacketSent(sessionId, packet);
 
                 } catch (SocketTimeoutException e) {
+                    rtoEstimator.backoff();
                     System.out.println("Client3 timeout, retrying... (Attempt " + (attempts + 1) + " of " + maxAttempts + ")");
                     attempts++;
                 }
             }
             return false;
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
+            System.err.println("Client3 error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Larger than one datagram: the fragments go out with Selective Repeat and the server reassembles them
+    private boolean sendFragmented(byte[] messageData, int fragments) throws IOException {
+        long sendTime = System.currentTimeMillis();
+        int delivered = rdtProtocol.sendFragmented(messageData, sequenceNumber, serverAddress, SERVER_PORT);
+        sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, delivered);
+        packetsSent += fragments;
+        packetsReceived += delivered;
+        if (delivered < fragments) {
+            return false;
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - sendTime);
+        rttMeasurements.add(elapsed);
+        System.out.println(String.format("Message of %d bytes in %d fragments: %dms (%.2f MB/s)",
+                           messageData.length, fragments, elapsed,
+                           messageData.length / 1048576.0 / (elapsed / 1000.0)));
+        return true;
+    }
+
+    // Streams a file of any size from a read-only mapping; the server writes it into received_files/
+    public boolean sendFile(Path path) {
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileLength = source.size();
+            int segments = RDTProtocol.segmentCount(fileLength);
+            long sendTime = System.currentTimeMillis();
+            int delivered = rdtProtocol.sendFile(source, ++transferCounter, sequenceNumber, serverAddress, SERVER_PORT);
+            sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, delivered);
+            packetsSent += segments;
+            packetsReceived += delivered;
+            if (delivered < segments) {
+                return false;
+            }
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - sendTime);
+            System.out.println(String.format("File %s: %d bytes in %d segments, %dms (%.2f MB/s)",
+                               path, fileLength, segments, elapsed,
+                               fileLength / 1048576.0 / (elapsed / 1000.0)));
+            return true;
+        } catch (IOException e) {
             System.err.println("Client3 error: " + e.getMessage());
             return false;
         }
     }
 
+    // Pipelined alternative to sendMessage(): returns without waiting for the ACK (blocking only while
+    // the in-flight limit is reached) and completes with the receipt. Uses its own socket and session.
+    public CompletableFuture<DeliveryReceipt> sendAsync(ByteBuffer message) {
+        try {
+            return asyncSender().sendAsync(message);
+        } catch (SocketException e) {
+            return AsyncSender.failed(e);
+        }
+    }
+
+    private synchronized AsyncSender asyncSender() throws SocketException {
+        if (asyncSender == null) {
+            asyncSender = new AsyncSender(serverAddress, SERVER_PORT, true);
+        }
+        return asyncSender;
+    }
+
+    public long getCurrentRto() {
+        return rtoEstimator.getRto();
+    }
+
     public void close() {
+        synchronized (this) {
+            if (asyncSender != null) {
+                asyncSender.close();
+            }
+        }
+        rdtProtocol.stop();
         double averageRTT = rttMeasurements.stream()
                 .mapToLong(Long::longValue)
                 .average()
@@ -134,8 +224,30 @@ public class Client3 {
     }
 
     public static void main(String[] args) {
+        // "--size N" sets the test message size in bytes, "--window N" the fragment window and
+        // "--file PATH" sends that file instead of the test messages
+        int messageSize = MESSAGE_SIZE;
+        int windowSize = DEFAULT_WINDOW;
+        String file = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--size")) {
+                messageSize = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--window")) {
+                windowSize = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--file")) {
+                file = args[i + 1];
+            }
+        }
+
         try {
-            Client3 client = new Client3();
+            Client3 client = new Client3(windowSize);
+
+            if (file != null) {
+                boolean success = client.sendFile(Paths.get(file));
+                System.out.println("Client3 file transfer " + (success ? "successful" : "failed"));
+                client.close();
+                return;
+            }
 
             String[] messagePrefixes = {
                 "LargeMessage1", "LargeMessage2", "LargeMessage3",
@@ -143,7 +255,7 @@ public class Client3 {
             };
 
             for (String prefix : messagePrefixes) {
-                String largeMessage = client.generateLargeMessage(MESSAGE_SIZE, prefix);
+                String largeMessage = client.generateLargeMessage(messageSize, prefix);
                 System.out.println("Client3 sending large message: " + prefix);
                 boolean success = client.sendMessage(largeMessage);
                 System.out.println("Client3 send " + (success ? "successful" : "failed"));
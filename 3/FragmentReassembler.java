@@ -0,0 +1,174 @@
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Rebuilds messages that RDTProtocol.sendFragmented split up. The first fragment of a message
+ * allocates one buffer of the final message size and every fragment is copied straight to its
+ * offset, so nothing is concatenated afterwards. Partial messages count against this
+ * reassembler's memory bound and a process-wide one shared by every session, and are discarded
+ * once they have waited longer than the reassembly timeout. A receiver calls admit() before
+ * acknowledging a fragment, so one a bound refuses is never reported as delivered, and clear()
+ * when its session ends, so the shared budget is handed back. Not thread-safe; each ServerThread
+ * owns one.
+ */
+public class FragmentReassembler {
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = Long.getLong("rdt.reassembly.maxBytes", 16L * 1024 * 1024);
+    public static final long MAX_TOTAL_BUFFERED_BYTES = Long.getLong("rdt.reassembly.maxTotalBytes", 256L * 1024 * 1024);
+    public static final long DEFAULT_TIMEOUT = 30000;
+    private static final AtomicLong totalBufferedBytes = new AtomicLong();
+
+    private final long maxBufferedBytes;
+    private final long timeoutMillis;
+    // Insertion order is arrival order of each message's first fragment, so the oldest is first
+    private final Map<Integer, Reassembly> pending = new LinkedHashMap<>();
+    private long bufferedBytes = 0;
+    private long completedMessages = 0;
+    private long expiredMessages = 0;
+    private long rejectedFragments = 0;
+
+    private static class Reassembly {
+        final byte[] message;
+        final int fragmentCount;
+        final BitSet received;
+        final long startedAt;
+        int remaining;
+
+        Reassembly(int messageLength, int fragmentCount, long startedAt) {
+            this.message = new byte[messageLength];
+            this.fragmentCount = fragmentCount;
+            this.received = new BitSet(fragmentCount);
+            this.startedAt = startedAt;
+            this.remaining = fragmentCount;
+        }
+    }
+
+    public FragmentReassembler() {
+        this(DEFAULT_MAX_BUFFERED_BYTES, DEFAULT_TIMEOUT);
+    }
+
+    public FragmentReassembler(long maxBufferedBytes, long timeoutMillis) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /*
+     * Reserves the buffer for the fragment's message if it has none yet. Returns false, and counts
+     * the fragment as rejected, if the message would exceed the memory bound or disagrees with
+     * the fragments already held.
+     */
+    public boolean admit(Packet fragment, long now) {
+        expire(now);
+
+        int messageId = messageId(fragment);
+        Reassembly reassembly = pending.get(messageId);
+        if (reassembly == null) {
+            if (bufferedBytes + fragment.getMessageLength() > maxBufferedBytes ||
+                !reserveTotal(fragment.getMessageLength())) {
+                rejectedFragments++;
+                return false;
+            }
+            reassembly = new Reassembly(fragment.getMessageLength(), fragment.getFragmentCount(), now);
+            pending.put(messageId, reassembly);
+            bufferedBytes += reassembly.message.length;
+        } else if (reassembly.fragmentCount != fragment.getFragmentCount() ||
+                   reassembly.message.length != fragment.getMessageLength()) {
+            rejectedFragments++;
+            return false;
+        }
+        return true;
+    }
+
+    // Returns the whole message when this fragment completes it, otherwise null
+    public byte[] accept(Packet fragment, long now) {
+        if (!admit(fragment, now)) {
+            return null;
+        }
+
+        int messageId = messageId(fragment);
+        Reassembly reassembly = pending.get(messageId);
+        if (reassembly.received.get(fragment.getFragmentIndex())) {
+            return null;
+        }
+        byte[] data = fragment.getData();
+        System.arraycopy(data, 0, reassembly.message, fragment.getFragmentOffset(), data.length);
+        reassembly.received.set(fragment.getFragmentIndex());
+        if (--reassembly.remaining > 0) {
+            return null;
+        }
+
+        pending.remove(messageId);
+        release(reassembly);
+        completedMessages++;
+        return reassembly.message;
+    }
+
+    private static int messageId(Packet fragment) {
+        return Math.floorMod(fragment.getSequenceNumber() - fragment.getFragmentIndex(), RDTProtocol.SEQUENCE_SPACE);
+    }
+
+    // Drops partial messages whose first fragment arrived more than the timeout ago
+    public void expire(long now) {
+        Iterator<Reassembly> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Reassembly reassembly = iterator.next();
+            if (now - reassembly.startedAt < timeoutMillis) {
+                break;
+            }
+            iterator.remove();
+            release(reassembly);
+            expiredMessages++;
+        }
+    }
+
+    // Drops every partial message, e.g. when the session that owns this reassembler ends
+    public void clear() {
+        for (Reassembly reassembly : pending.values()) {
+            release(reassembly);
+        }
+        pending.clear();
+    }
+
+    private static boolean reserveTotal(long bytes) {
+        while (true) {
+            long current = totalBufferedBytes.get();
+            if (current + bytes > MAX_TOTAL_BUFFERED_BYTES) {
+                return false;
+            }
+            if (totalBufferedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(Reassembly reassembly) {
+        bufferedBytes -= reassembly.message.length;
+        totalBufferedBytes.addAndGet(-reassembly.message.length);
+    }
+
+    public int getPendingMessages() {
+        return pending.size();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public static long getTotalBufferedBytes() {
+        return totalBufferedBytes.get();
+    }
+
+    public long getCompletedMessages() {
+        return completedMessages;
+    }
+
+    public long getExpiredMessages() {
+        return expiredMessages;
+    }
+
+    public long getRejectedFragments() {
+        return rejectedFragments;
+    }
+}
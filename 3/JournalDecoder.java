@@ -0,0 +1,125 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Offline reader for EventJournal files. Renders the same lines CommunicationLogger writes in
+ * text mode, or CSV with --csv:
+ *
+ *   java JournalDecoder logs/communication_2024-11-10_17-25-07.journal [--csv]
+ */
+public class JournalDecoder {
+    private static final Packet.PacketType[] PACKET_TYPES = Packet.PacketType.values();
+    private static final String[] EVENT_NAMES = {
+        null, "Packet sent", "Packet received", "Packet retransmitted", "Packet dropped", null
+    };
+
+    private final Map<Integer, String> transactions = new HashMap<>();
+    private final boolean csv;
+    private final PrintStream out;
+
+    public JournalDecoder(boolean csv, PrintStream out) {
+        this.csv = csv;
+        this.out = out;
+    }
+
+    public void decode(Path journalFile) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (csv) {
+            out.println("timestamp_ns,transaction,event,packet_type,sequence,rtt_ns,details");
+        }
+        while (buffer.remaining() >= EventJournal.RECORD_SIZE) {
+            byte type = buffer.get();
+            byte packetType = buffer.get();
+            int transaction = buffer.getInt();
+            int sequenceNumber = buffer.getInt();
+            long timestampNanos = buffer.getLong();
+            long rttNanos = buffer.getLong();
+
+            String text = null;
+            if (type == EventJournal.NAME || type == EventJournal.NOTE) {
+                if (buffer.remaining() < 2) {
+                    break;
+                }
+                int length = buffer.getShort() & 0xFFFF;
+                if (buffer.remaining() < length) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                text = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            if (type == EventJournal.NAME) {
+                transactions.put(transaction, text);
+                continue;
+            }
+            render(type, packetType, transactions.getOrDefault(transaction, "T?" + transaction),
+                   sequenceNumber, timestampNanos, rttNanos, text);
+        }
+        out.flush();
+    }
+
+    private void render(byte type, byte packetType, String transactionId, int sequenceNumber,
+                        long timestampNanos, long rttNanos, String text) {
+        String packetTypeName = packetType >= 0 && packetType < PACKET_TYPES.length
+            ? PACKET_TYPES[packetType].name() : "";
+        String event;
+        String details;
+        if (type == EventJournal.NOTE) {
+            int separator = text.indexOf(" - ");
+            event = separator >= 0 ? text.substring(0, separator) : text;
+            details = separator >= 0 ? text.substring(separator + 3) : "";
+        } else if (type > 0 && type < EVENT_NAMES.length && EVENT_NAMES[type] != null) {
+            event = EVENT_NAMES[type];
+            details = "Type: " + packetTypeName + ", Seq: " + sequenceNumber;
+            if (rttNanos != EventJournal.NO_RTT) {
+                details += ", RTT: " + (rttNanos / 1000000) + "ms";
+            }
+            if (type == EventJournal.PACKET_DROPPED) {
+                details += " - Simulated packet loss";
+            }
+        } else {
+            event = "Unknown event " + type;
+            details = "";
+        }
+
+        if (csv) {
+            out.println(timestampNanos + "," + transactionId + "," + event + "," + packetTypeName + "," +
+                        (type == EventJournal.NOTE ? "" : String.valueOf(sequenceNumber)) + "," +
+                        (rttNanos == EventJournal.NO_RTT ? "" : String.valueOf(rttNanos)) + "," +
+                        "\"" + details.replace("\"", "\"\"") + "\"");
+        } else {
+            LocalDateTime time = LocalDateTime.ofInstant(
+                Instant.ofEpochSecond(0, timestampNanos), ZoneId.systemDefault());
+            out.println("[" + time.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "] [" +
+                        transactionId + "] " + event + " - " + details);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java JournalDecoder <journal file> [--csv]");
+            System.exit(1);
+        }
+        boolean csv = args.length > 1 && args[1].equals("--csv");
+        try {
+            new JournalDecoder(csv, System.out).decode(Paths.get(args[0]));
+        } catch (IOException e) {
+            System.err.println("Error reading journal: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
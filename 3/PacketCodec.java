@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+
+public interface PacketCodec {
+    int LEGACY_VERSION = 0;
+    int BINARY_VERSION = 1;
+    // Every client speaks version 1; -Drdt.codec.legacy=true lets Java-serialized packets back in for old peers
+    boolean LEGACY_DECODE = Boolean.getBoolean("rdt.codec.legacy");
+    // Codecs keep no state, so every datagram is decoded by the same instance
+    PacketCodec LEGACY_CODEC = new SerializedPacketCodec();
+    BinaryPacketCodec BINARY_CODEC = new BinaryPacketCodec();
+
+    int version();
+
+    byte[] encode(Packet packet) throws IOException;
+
+    Packet decode(byte[] bytes, int offset, int length) throws IOException;
+
+    static PacketCodec forVersion(int version) throws ProtocolException {
+        switch (version) {
+            case LEGACY_VERSION:
+                if (!LEGACY_DECODE) {
+                    throw new ProtocolException("Legacy serialized packet refused (enable with -Drdt.codec.legacy=true)");
+                }
+                return LEGACY_CODEC;
+            case BINARY_VERSION:
+                return BINARY_CODEC;
+            default:
+                throw new ProtocolException("Unsupported packet version: " + version);
+        }
+    }
+
+    // Java serialization streams always open with 0xACED, the binary header with its version byte
+    static PacketCodec detect(byte[] bytes, int offset, int length) throws ProtocolException {
+        if (length < 1) {
+            throw new ProtocolException("Empty datagram");
+        }
+        if (bytes[offset] == (byte) 0xAC) {
+            return forVersion(LEGACY_VERSION);
+        }
+        return forVersion(bytes[offset]);
+    }
+}
@@ -1,41 +1,645 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.IntFunction;
 
 public class RDTProtocol {
-    private static final int TIMEOUT = 1000;
+    public static final int SEQUENCE_SPACE = 1 << 16;
+    // Largest UDP payload that fits an Ethernet MTU (1500 minus 20 bytes IPv4 and 8 bytes UDP headers)
+    public static final int MAX_DATAGRAM_SIZE = 1472;
+    public static final int MAX_FRAGMENT_PAYLOAD =
+        MAX_DATAGRAM_SIZE - BinaryPacketCodec.HEADER_SIZE - BinaryPacketCodec.FRAGMENT_EXTENSION_SIZE;
+    public static final int MAX_FILE_PAYLOAD =
+        MAX_DATAGRAM_SIZE - BinaryPacketCodec.HEADER_SIZE - BinaryPacketCodec.FILE_EXTENSION_SIZE;
+    private static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_RETRANSMISSIONS = 5;
+    // NACKed copies resent at once per packet; past this a packet that keeps arriving corrupted waits for its timer
+    private static final int MAX_NACK_RESENDS = 5;
+    static final int SACK_HOLE_THRESHOLD = 3;
     private final DatagramSocket socket;
-    private final ScheduledExecutorService scheduler;
-    private final ConcurrentHashMap<Integer, ScheduledFuture<?>> pendingAcks;
+    private final TimerWheel timer;
+    private final ConcurrentHashMap<Integer, CompletableFuture<Boolean>> pendingAcks;
     private final CommunicationLogger logger;
     private final String transactionId;
+    private final int windowSize;
+    private final RtoEstimator rtoEstimator;
+    private final CongestionController congestion;
+    private boolean phaseLogged = false;
+    private boolean loggedSlowStart;
+    // Last receive window the peer advertised; unlimited until an ACK says otherwise
+    private int peerWindow = Integer.MAX_VALUE;
+    private long probeDeadline = 0;
+    private long probeInterval = 0;
+    private long zeroWindowProbes = 0;
     
-    public RDTProtocol(DatagramSocket socket, String transactionId) {
+    public RDTProtocol(DatagramSocket socket, String transactionId, int windowSize) {
+        this(socket, transactionId, windowSize, new RenoCongestionController());
+    }
+
+    // windowSize caps how many packets may be in flight; the congestion controller decides how many actually are
+    public RDTProtocol(DatagramSocket socket, String transactionId, int windowSize,
+                       CongestionController congestion) {
+        if (windowSize < 1 || windowSize >= SEQUENCE_SPACE) {
+            throw new IllegalArgumentException("Window size must be between 1 and " + (SEQUENCE_SPACE - 1));
+        }
         this.socket = socket;
-        this.scheduler = Executors.newScheduledThreadPool(1);
+        this.timer = TimerWheel.shared();
         this.pendingAcks = new ConcurrentHashMap<>();
         this.logger = new CommunicationLogger();
         this.transactionId = transactionId;
+        this.windowSize = windowSize;
+        this.rtoEstimator = new RtoEstimator();
+        this.congestion = congestion;
+    }
+
+    public RDTProtocol(DatagramSocket socket, String transactionId) {
+        this(socket, transactionId, 1);
     }
 
     public RDTProtocol(DatagramSocket socket) {
-        this.socket = socket;
-        this.scheduler = Executors.newScheduledThreadPool(1);
-        this.pendingAcks = new ConcurrentHashMap<>();
-        this.logger = new CommunicationLogger();
-        this.transactionId = "defaultTransactionId";
+        this(socket, "defaultTransactionId");
+    }
+
+    public static int nextSequenceNumber(int sequenceNumber, int offset) {
+        return (sequenceNumber + offset) % SEQUENCE_SPACE;
+    }
+
+    // Messages that fit one datagram are sent whole; larger ones need this many fragments
+    public static int fragmentCount(int messageLength) {
+        if (messageLength <= MAX_DATAGRAM_SIZE - BinaryPacketCodec.HEADER_SIZE) {
+            return 1;
+        }
+        return (messageLength + MAX_FRAGMENT_PAYLOAD - 1) / MAX_FRAGMENT_PAYLOAD;
+    }
+
+    public static int segmentCount(long fileLength) {
+        long count = (fileLength + MAX_FILE_PAYLOAD - 1) / MAX_FILE_PAYLOAD;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File of " + fileLength + " bytes is too large");
+        }
+        return (int) count;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public CongestionController getCongestionController() {
+        return congestion;
+    }
+
+    public int getPeerWindow() {
+        return peerWindow;
+    }
+
+    public long getZeroWindowProbes() {
+        return zeroWindowProbes;
+    }
+
+    public RtoEstimator getRtoEstimator() {
+        return rtoEstimator;
+    }
+
+    public long getCurrentRto() {
+        return rtoEstimator.getRto();
+    }
+
+    // ACK and NACK are never acknowledged themselves: send once, with no pending future, timer or wait
+    public void sendControl(Packet packet, InetAddress address, int port) throws IOException {
+        if (packet.getType() == Packet.PacketType.DATA) {
+            throw new IllegalArgumentException("DATA packets need sendPacket, not sendControl");
+        }
+        transmit(packet, address, port);
     }
 
     public boolean sendPacket(Packet packet, InetAddress address, int port) throws IOException {
         CompletableFuture<Boolean> ackReceived = new CompletableFuture<>();
-
-        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
-            logger.logRetransmission(transactionId, packet);
-            ackReceived.complete(false);
-        }, TIMEOUT, TimeUnit.MILLISECONDS);
+        long rto = rtoEstimator.getRto();
+        
+        // Schedule timeout task; the wheel always completes the future, so the wait below is bounded
+        TimerWheel.Timeout timeout = timer.schedule(() -> {
+            if (ackReceived.complete(false)) {
+                logger.logRetransmission(transactionId, packet);
+            }
+        }, rto, TimeUnit.MILLISECONDS);
+        
+        // Store the ACK
+        pendingAcks.put(packet.getSequenceNumber(), ackReceived);
         
-        pendingAcks.put(packet.getSequenceNumber(), timeout);
+        // Send packet
+        transmit(packet, address, port);
+        
+        try {
+            return ackReceived.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        } finally {
+            timeout.cancel();
+            cleanup(packet.getSequenceNumber());
+        }
+    }
+
+    /*
+     * Go-Back-N: keeps up to windowSize DATA packets in flight, advances on cumulative ACKs and
+     * resends everything outstanding when the single retransmission timer for the oldest
+     * unacknowledged packet expires, or after three duplicate ACKs. Returns how many payloads
+     * were acknowledged, in order.
+     */
+    public int sendWindowed(List<byte[]> payloads, int firstSequenceNumber,
+                            InetAddress address, int port) throws IOException {
+        Packet[] packets = buildDataPackets(payloads, firstSequenceNumber);
+        long[] sendTimes = new long[packets.length];
+        boolean[] retransmitted = new boolean[packets.length];
+        int[] nackResends = new int[packets.length];
+        int base = 0;
+        int next = 0;
+        int retransmissions = 0;
+        long timerDeadline = 0;
+        int duplicateAcks = 0;
+        int recoveryPoint = 0;
+        long ackedBytes = 0;
+        long startTime = System.currentTimeMillis();
+        int originalTimeout = socket.getSoTimeout();
+        byte[] receiveBuffer = BufferPool.shared().acquire();
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+
+        try {
+            while (base < packets.length) {
+                int allowed = allowedInFlight(next - base, System.currentTimeMillis());
+                while (next < packets.length && next - base < allowed) {
+                    transmit(packets[next], address, port);
+                    logger.logPacketSent(transactionId, packets[next]);
+                    sendTimes[next] = System.currentTimeMillis();
+                    if (next == base) {
+                        timerDeadline = sendTimes[next] + rtoEstimator.getRto();
+                    }
+                    next++;
+                }
+                if (next == base) {
+                    awaitWindowUpdate(receivePacket, address, port);
+                    continue;
+                }
+
+                long remaining = timerDeadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (++retransmissions > MAX_RETRANSMISSIONS) {
+                        break;
+                    }
+                    rtoEstimator.backoff();
+                    congestion.onTimeout();
+                    logCongestionState(ackedBytes, startTime, true);
+                    for (int i = base; i < next; i++) {
+                        transmit(packets[i], address, port);
+                        retransmitted[i] = true;
+                        logger.logRetransmission(transactionId, packets[i]);
+                    }
+                    timerDeadline = System.currentTimeMillis() + rtoEstimator.getRto();
+                    continue;
+                }
+
+                Packet response = awaitResponse(receivePacket, address, port, remaining);
+                if (response == null) {
+                    continue;
+                }
+                updatePeerWindow(response);
+                int acked = distance(packets[base].getSequenceNumber(), response.getSequenceNumber());
+                if (acked == SEQUENCE_SPACE - 1 && response.getType() == Packet.PacketType.ACK) {
+                    // Third duplicate ACK for base - 1: base was lost, resend the window without waiting for the timer
+                    if (++duplicateAcks == SACK_HOLE_THRESHOLD && base >= recoveryPoint) {
+                        congestion.onDuplicateAckLoss();
+                        logCongestionState(ackedBytes, startTime, true);
+                        recoveryPoint = next;
+                        for (int i = base; i < next; i++) {
+                            transmit(packets[i], address, port);
+                            retransmitted[i] = true;
+                            logger.logRetransmission(transactionId, packets[i]);
+                        }
+                        timerDeadline = System.currentTimeMillis() + rtoEstimator.getRto();
+                    }
+                    continue;
+                }
+                if (acked >= next - base) {
+                    continue;
+                }
+                if (response.getType() == Packet.PacketType.ACK) {
+                    int ackedIndex = base + acked;
+                    long rtt = CongestionController.NO_RTT_SAMPLE;
+                    if (!retransmitted[ackedIndex]) {
+                        rtt = System.currentTimeMillis() - sendTimes[ackedIndex];
+                        rtoEstimator.sample(rtt);
+                    }
+                    for (int i = base; i <= ackedIndex; i++) {
+                        ackedBytes += packets[i].getData().length;
+                    }
+                    congestion.onAck(ackedIndex + 1 - base, rtt);
+                    logCongestionState(ackedBytes, startTime, false);
+                    base = ackedIndex + 1;
+                    duplicateAcks = 0;
+                    retransmissions = 0;
+                    timerDeadline = System.currentTimeMillis() + rtoEstimator.getRto();
+                } else if (response.getType() == Packet.PacketType.NACK) {
+                    // A NACK reports a corrupted copy, not congestion: resend that packet alone, without backoff
+                    int nackedIndex = base + acked;
+                    if (++nackResends[nackedIndex] <= MAX_NACK_RESENDS) {
+                        transmit(packets[nackedIndex], address, port);
+                        retransmitted[nackedIndex] = true;
+                        logger.logRetransmission(transactionId, packets[nackedIndex]);
+                        if (nackedIndex == base) {
+                            timerDeadline = System.currentTimeMillis() + rtoEstimator.getRto();
+                        }
+                    }
+                }
+            }
+        } finally {
+            socket.setSoTimeout(originalTimeout);
+            BufferPool.shared().release(receiveBuffer);
+        }
+        logCongestionState(ackedBytes, startTime, true);
+        return base;
+    }
+
+    /*
+     * Selective Repeat: each packet in the window has its own deadline, cumulative ACKs slide the
+     * window and the SACK bitmap marks later packets as received, so only the holes are resent.
+     * Returns how many payloads were acknowledged, in order.
+     */
+    public int sendSelectiveRepeat(List<byte[]> payloads, int firstSequenceNumber,
+                                   InetAddress address, int port) throws IOException {
+        return selectiveRepeat(buildDataPackets(payloads, firstSequenceNumber), address, port);
+    }
+
+    /*
+     * Splits a message of any size into MTU-sized fragments on consecutive sequence numbers and
+     * sends them with Selective Repeat. Returns how many fragments were acknowledged, in order;
+     * the message was delivered when that equals fragmentCount(message.length).
+     */
+    public int sendFragmented(byte[] message, int firstSequenceNumber,
+                              InetAddress address, int port) throws IOException {
+        return selectiveRepeat(buildFragments(message, firstSequenceNumber), address, port);
+    }
+
+    /*
+     * Streams a file as segments of MAX_FILE_PAYLOAD bytes with Selective Repeat. The source is
+     * mapped read-only a region at a time and each segment is read from the mapping only when it
+     * enters the window, so heap use follows the window size rather than the file size. Returns
+     * how many segments were acknowledged, in order; the file was delivered when that equals
+     * segmentCount(source.size()).
+     */
+    public int sendFile(FileChannel source, int transferId, int firstSequenceNumber,
+                        InetAddress address, int port) throws IOException {
+        MappedFileSegments segments = new MappedFileSegments(source, transferId, firstSequenceNumber);
+        try {
+            return selectiveRepeat(segments, segmentCount(segments.fileLength), address, port);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
+    private static class MappedFileSegments implements IntFunction<Packet> {
+        private final FileChannel source;
+        private final int transferId;
+        private final int firstSequenceNumber;
+        private final long fileLength;
+        private MappedByteBuffer region;
+        private long regionStart = -1;
+
+        MappedFileSegments(FileChannel source, int transferId, int firstSequenceNumber) throws IOException {
+            this.source = source;
+            this.transferId = transferId;
+            this.firstSequenceNumber = firstSequenceNumber;
+            this.fileLength = source.size();
+        }
+
+        @Override
+        public Packet apply(int index) {
+            long offset = (long) index * MAX_FILE_PAYLOAD;
+            byte[] data = new byte[(int) Math.min(MAX_FILE_PAYLOAD, fileLength - offset)];
+            try {
+                int copied = 0;
+                while (copied < data.length) {
+                    long position = offset + copied;
+                    if (region == null || position < regionStart || position >= regionStart + region.capacity()) {
+                        regionStart = position - position % MAP_REGION_SIZE;
+                        region = source.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                                            Math.min(MAP_REGION_SIZE, fileLength - regionStart));
+                    }
+                    ByteBuffer slice = region.duplicate();
+                    slice.position((int) (position - regionStart));
+                    int length = Math.min(data.length - copied, slice.remaining());
+                    slice.get(data, copied, length);
+                    copied += length;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Packet(Packet.PacketType.DATA, nextSequenceNumber(firstSequenceNumber, index), data)
+                .withFileSegment(transferId, offset, fileLength);
+        }
+    }
+
+    private int selectiveRepeat(Packet[] packets, InetAddress address, int port) throws IOException {
+        return selectiveRepeat(i -> packets[i], packets.length, address, port);
+    }
+
+    /*
+     * Packets are only built when they enter the window and per-packet state lives in rings of
+     * windowSize slots (packet i uses slot i % windowSize), so memory stays bounded by the window
+     * however many packets the transfer has.
+     */
+    private int selectiveRepeat(IntFunction<Packet> packetAt, int count,
+                                InetAddress address, int port) throws IOException {
+        Packet[] packets = new Packet[windowSize];
+        boolean[] acknowledged = new boolean[windowSize];
+        long[] sendTimes = new long[windowSize];
+        long[] deadlines = new long[windowSize];
+        int[] retransmissions = new int[windowSize];
+        boolean[] retransmitted = new boolean[windowSize];
+        int[] nackResends = new int[windowSize];
+        int[] holeReports = new int[windowSize];
+        // Order of each packet's latest transmission; only SACKs for packets sent after a hole report it
+        long[] transmitOrder = new long[windowSize];
+        long transmitCount = 0;
+        int base = 0;
+        int next = 0;
+        int recoveryPoint = 0;
+        long ackedBytes = 0;
+        long startTime = System.currentTimeMillis();
+        int originalTimeout = socket.getSoTimeout();
+        byte[] receiveBuffer = BufferPool.shared().acquire();
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+
+        try {
+            while (base < count) {
+                int allowed = allowedInFlight(next - base, System.currentTimeMillis());
+                while (next < count && next - base < allowed) {
+                    int slot = next % windowSize;
+                    packets[slot] = packetAt.apply(next);
+                    acknowledged[slot] = false;
+                    retransmissions[slot] = 0;
+                    retransmitted[slot] = false;
+                    nackResends[slot] = 0;
+                    holeReports[slot] = 0;
+                    transmit(packets[slot], address, port);
+                    transmitOrder[slot] = ++transmitCount;
+                    logger.logPacketSent(transactionId, packets[slot]);
+                    sendTimes[slot] = System.currentTimeMillis();
+                    deadlines[slot] = sendTimes[slot] + rtoEstimator.getRto();
+                    next++;
+                }
+                if (next == base) {
+                    awaitWindowUpdate(receivePacket, address, port);
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                long earliestDeadline = Long.MAX_VALUE;
+                boolean exhausted = false;
+                boolean backedOff = false;
+                for (int i = base; i < next; i++) {
+                    int slot = i % windowSize;
+                    if (acknowledged[slot]) {
+                        continue;
+                    }
+                    if (deadlines[slot] <= now) {
+                        if (++retransmissions[slot] > MAX_RETRANSMISSIONS) {
+                            exhausted = true;
+                            break;
+                        }
+                        if (!backedOff) {
+                            rtoEstimator.backoff();
+                            congestion.onTimeout();
+                            logCongestionState(ackedBytes, startTime, true);
+                            backedOff = true;
+                        }
+                        transmit(packets[slot], address, port);
+                        transmitOrder[slot] = ++transmitCount;
+                        retransmitted[slot] = true;
+                        logger.logRetransmission(transactionId, packets[slot]);
+                        deadlines[slot] = now + rtoEstimator.getRto();
+                    }
+                    earliestDeadline = Math.min(earliestDeadline, deadlines[slot]);
+                }
+                if (exhausted) {
+                    break;
+                }
+
+                Packet response = awaitResponse(receivePacket, address, port,
+                                                Math.max(1, earliestDeadline - now));
+                if (response == null) {
+                    continue;
+                }
+                updatePeerWindow(response);
+                // A duplicate ACK for base - 1 still carries fresh SACK bits, so offset -1 is kept
+                int offset = distance(packets[base % windowSize].getSequenceNumber(), response.getSequenceNumber());
+                if (offset == SEQUENCE_SPACE - 1) {
+                    offset = -1;
+                }
+                if (offset >= next - base) {
+                    continue;
+                }
+                if (response.getType() == Packet.PacketType.NACK) {
+                    // A NACK reports a corrupted copy, not congestion: resend it with no backoff and no retry used
+                    int slot = (base + offset) % windowSize;
+                    if (offset >= 0 && !acknowledged[slot] && ++nackResends[slot] <= MAX_NACK_RESENDS) {
+                        transmit(packets[slot], address, port);
+                        transmitOrder[slot] = ++transmitCount;
+                        retransmitted[slot] = true;
+                        logger.logRetransmission(transactionId, packets[slot]);
+                        deadlines[slot] = System.currentTimeMillis() + rtoEstimator.getRto();
+                    }
+                    continue;
+                }
+
+                int ackedSlot = (base + offset) % windowSize;
+                long rtt = CongestionController.NO_RTT_SAMPLE;
+                if (offset >= 0 && !acknowledged[ackedSlot] && !retransmitted[ackedSlot]) {
+                    rtt = System.currentTimeMillis() - sendTimes[ackedSlot];
+                    rtoEstimator.sample(rtt);
+                }
+                int newlyAcked = 0;
+                for (int i = base; i <= base + offset; i++) {
+                    if (!acknowledged[i % windowSize]) {
+                        acknowledged[i % windowSize] = true;
+                        ackedBytes += packets[i % windowSize].getData().length;
+                        newlyAcked++;
+                    }
+                }
+                int highestSacked = -1;
+                long selectiveAcks = response.getSelectiveAcks();
+                for (int bit = 0; bit < Long.SIZE && selectiveAcks != 0; bit++) {
+                    int index = base + offset + 2 + bit;
+                    if ((selectiveAcks & (1L << bit)) != 0 && index < next) {
+                        if (!acknowledged[index % windowSize]) {
+                            acknowledged[index % windowSize] = true;
+                            ackedBytes += packets[index % windowSize].getData().length;
+                            newlyAcked++;
+                        }
+                        highestSacked = index;
+                    }
+                }
+                if (newlyAcked > 0) {
+                    congestion.onAck(newlyAcked, rtt);
+                    logCongestionState(ackedBytes, startTime, false);
+                }
+
+                // Holes reported behind SACKed packets by several ACKs are resent without waiting for their timer.
+                // A resent hole is only reported again by packets sent after it, not by ACKs already on their way.
+                long reportingOrder = highestSacked >= 0 ? transmitOrder[highestSacked % windowSize] : 0;
+                for (int i = base; i < highestSacked; i++) {
+                    int slot = i % windowSize;
+                    if (!acknowledged[slot] && transmitOrder[slot] < reportingOrder &&
+                        ++holeReports[slot] >= SACK_HOLE_THRESHOLD) {
+                        // One window reduction per loss episode, however many holes it left
+                        if (i >= recoveryPoint) {
+                            congestion.onDuplicateAckLoss();
+                            logCongestionState(ackedBytes, startTime, true);
+                            recoveryPoint = next;
+                        }
+                        holeReports[slot] = 0;
+                        retransmissions[slot]++;
+                        retransmitted[slot] = true;
+                        transmit(packets[slot], address, port);
+                        transmitOrder[slot] = ++transmitCount;
+                        logger.logRetransmission(transactionId, packets[slot]);
+                        deadlines[slot] = System.currentTimeMillis() + rtoEstimator.getRto();
+                    }
+                }
+                while (base < next && acknowledged[base % windowSize]) {
+                    packets[base % windowSize] = null;
+                    base++;
+                }
+            }
+        } finally {
+            socket.setSoTimeout(originalTimeout);
+            BufferPool.shared().release(receiveBuffer);
+        }
+        logCongestionState(ackedBytes, startTime, true);
+        return base;
+    }
+
+    private int sendWindow() {
+        return Math.min(Math.min(windowSize, congestion.getWindow()), peerWindow);
+    }
+
+    /*
+     * How many packets may be in flight now. A receiver with a zero window sends nothing until it
+     * hears from us, so once nothing is in flight a single packet goes out as a window probe after
+     * a persist interval that starts at the RTO and doubles while the window stays shut.
+     */
+    private int allowedInFlight(int inFlight, long now) {
+        int allowed = sendWindow();
+        if (allowed > 0 || inFlight > 0) {
+            probeDeadline = 0;
+            if (allowed > 0) {
+                probeInterval = 0;
+            }
+            return allowed;
+        }
+        if (probeInterval == 0) {
+            probeInterval = rtoEstimator.getRto();
+        }
+        if (probeDeadline == 0) {
+            probeDeadline = now + probeInterval;
+            return 0;
+        }
+        if (now < probeDeadline) {
+            return 0;
+        }
+        probeDeadline = 0;
+        probeInterval = Math.min(probeInterval * 2, RtoEstimator.MAX_RTO);
+        zeroWindowProbes++;
+        return 1;
+    }
+
+    // Zero window with nothing in flight: listen for a window update until the next probe is due
+    private void awaitWindowUpdate(DatagramPacket receivePacket, InetAddress address, int port) throws IOException {
+        Packet update = awaitResponse(receivePacket, address, port,
+                                      Math.max(1, probeDeadline - System.currentTimeMillis()));
+        if (update != null) {
+            updatePeerWindow(update);
+        }
+    }
+
+    private void updatePeerWindow(Packet response) {
+        if (response.getType() == Packet.PacketType.ACK && response.hasReceiveWindow()) {
+            peerWindow = response.getReceiveWindow();
+        }
+    }
+
+    /*
+     * ACKs only log when the window crosses ssthresh (slow start <-> congestion avoidance); loss
+     * events and the end of a transfer pass force. The logger may write synchronously, so it is
+     * kept off the per-ACK path.
+     */
+    private void logCongestionState(long ackedBytes, long startTime, boolean force) {
+        int cwnd = congestion.getWindow();
+        boolean slowStart = cwnd < congestion.getSlowStartThreshold();
+        if (!force && phaseLogged && slowStart == loggedSlowStart) {
+            return;
+        }
+        phaseLogged = true;
+        loggedSlowStart = slowStart;
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        logger.logCongestionState(transactionId, congestion.getName(), cwnd,
+                                  congestion.getSlowStartThreshold(), ackedBytes * 1000.0 / elapsed);
+    }
+
+    static Packet[] buildFragments(byte[] message, int firstSequenceNumber) {
+        int count = fragmentCount(message.length);
+        if (count == 1) {
+            return new Packet[] { new Packet(Packet.PacketType.DATA, firstSequenceNumber, message) };
+        }
+        if (count > BinaryPacketCodec.MAX_FRAGMENTS || count >= SEQUENCE_SPACE / 2) {
+            throw new IllegalArgumentException("Message of " + message.length + " bytes needs too many fragments");
+        }
+        Packet[] packets = new Packet[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * MAX_FRAGMENT_PAYLOAD;
+            byte[] data = Arrays.copyOfRange(message, offset, Math.min(offset + MAX_FRAGMENT_PAYLOAD, message.length));
+            packets[i] = new Packet(Packet.PacketType.DATA, nextSequenceNumber(firstSequenceNumber, i), data)
+                .withFragment(i, count, offset, message.length);
+        }
+        return packets;
+    }
+
+    private static Packet[] buildDataPackets(List<byte[]> payloads, int firstSequenceNumber) {
+        Packet[] packets = new Packet[payloads.size()];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = new Packet(Packet.PacketType.DATA,
+                                    nextSequenceNumber(firstSequenceNumber, i),
+                                    payloads.get(i));
+        }
+        return packets;
+    }
+
+    // Waits up to timeoutMillis for a valid packet from the peer; returns null on timeout or for anything else.
+    private Packet awaitResponse(DatagramPacket receivePacket, InetAddress address, int port,
+                                 long timeoutMillis) throws IOException {
+        try {
+            socket.setSoTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            receivePacket.setLength(receivePacket.getData().length);
+            socket.receive(receivePacket);
+            if (!address.equals(receivePacket.getAddress()) || receivePacket.getPort() != port) {
+                return null;
+            }
+            Packet response = Packet.fromBytes(receivePacket.getData(), 0, receivePacket.getLength());
+            return response.isValid() ? response : null;
+        } catch (SocketTimeoutException | ProtocolException e) {
+            return null;
+        }
+    }
+
+    static int distance(int from, int to) {
+        return (to - from + SEQUENCE_SPACE) % SEQUENCE_SPACE;
+    }
+
+    private void transmit(Packet packet, InetAddress address, int port) throws IOException {
         byte[] sendData = packet.toBytes();
         DatagramPacket datagramPacket = new DatagramPacket(
             sendData,
@@ -45,21 +649,12 @@ public class RDTProtocol {
         );
         
         socket.send(datagramPacket);
-        
-        try {
-            return ackReceived.get(TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            return false;
-        } finally {
-            cleanup(packet.getSequenceNumber());
-        }
     }
 
     public void handleAck(Packet ackPacket) {
-        ScheduledFuture<?> pendingAck = pendingAcks.get(ackPacket.getSequenceNumber());
+        CompletableFuture<Boolean> pendingAck = pendingAcks.remove(ackPacket.getSequenceNumber());
         if (pendingAck != null) {
-            pendingAck.cancel(false);
-            cleanup(ackPacket.getSequenceNumber());
+            pendingAck.complete(true);
         }
     }
 
@@ -67,14 +662,11 @@ public class RDTProtocol {
         pendingAcks.remove(sequenceNumber);
     }
 
+    // The timer wheel is shared by every session, so stopping only releases this protocol's own waiters
     public void stop() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
+        for (CompletableFuture<Boolean> pendingAck : pendingAcks.values()) {
+            pendingAck.complete(false);
         }
+        pendingAcks.clear();
     }
-} 
\ No newline at end of file
+}
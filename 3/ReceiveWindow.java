@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Receiver half of the sliding window: tracks the next in-order sequence number so ACKs can be
+ * cumulative. With a capacity above 1 it also buffers out-of-order packets for Selective Repeat
+ * and reports them to the sender as a SACK bitmap.
+ */
+public class ReceiveWindow {
+    private final Packet[] buffer;
+    private int head = 0;
+    private int expectedSequenceNumber = 0;
+
+    public ReceiveWindow() {
+        this(1);
+    }
+
+    public ReceiveWindow(int capacity) {
+        if (capacity < 1 || capacity >= RDTProtocol.SEQUENCE_SPACE / 2) {
+            throw new IllegalArgumentException("Receive window must be between 1 and " +
+                                               (RDTProtocol.SEQUENCE_SPACE / 2 - 1));
+        }
+        this.buffer = new Packet[capacity];
+    }
+
+    public boolean isExpected(int sequenceNumber) {
+        return sequenceNumber == expectedSequenceNumber;
+    }
+
+    // True if receive() would take the packet: inside the window and not already held
+    public boolean isNew(int sequenceNumber) {
+        int offset = offsetOf(sequenceNumber);
+        return offset < buffer.length && (offset == 0 || buffer[slot(offset)] == null);
+    }
+
+    public void advance() {
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        expectedSequenceNumber = RDTProtocol.nextSequenceNumber(expectedSequenceNumber, 1);
+    }
+
+    // Returns the packets that became deliverable in order; out-of-order packets inside the window are held back.
+    public List<Packet> receive(Packet packet) {
+        List<Packet> delivered = new ArrayList<>();
+        int offset = offsetOf(packet.getSequenceNumber());
+        if (offset >= buffer.length) {
+            return delivered;
+        }
+        if (offset > 0) {
+            buffer[slot(offset)] = packet;
+            return delivered;
+        }
+
+        delivered.add(packet);
+        advance();
+        Packet next;
+        while ((next = buffer[head]) != null) {
+            delivered.add(next);
+            advance();
+        }
+        return delivered;
+    }
+
+    // Bit i set means expectedSequenceNumber + 1 + i is already buffered.
+    public long getSelectiveAcks() {
+        long bits = 0;
+        int limit = Math.min(buffer.length - 1, Long.SIZE);
+        for (int i = 0; i < limit; i++) {
+            if (buffer[slot(i + 1)] != null) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    public int getBufferedCount() {
+        int count = 0;
+        for (Packet held : buffer) {
+            if (held != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    public int getExpectedSequenceNumber() {
+        return expectedSequenceNumber;
+    }
+
+    public int getLastInOrder() {
+        return RDTProtocol.nextSequenceNumber(expectedSequenceNumber, RDTProtocol.SEQUENCE_SPACE - 1);
+    }
+
+    private int offsetOf(int sequenceNumber) {
+        return (sequenceNumber - expectedSequenceNumber + RDTProtocol.SEQUENCE_SPACE) % RDTProtocol.SEQUENCE_SPACE;
+    }
+
+    private int slot(int offset) {
+        return (head + offset) % buffer.length;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * TCP Reno style AIMD (RFC 5681), counted in packets:
+ *
+ *   slow start            cwnd < ssthresh: cwnd += 1 per packet ACKed (doubles every RTT)
+ *   congestion avoidance  cwnd += 1/cwnd per packet ACKed (+1 every RTT)
+ *   duplicate-ACK loss    ssthresh = max(cwnd / 2, 2), cwnd = ssthresh (fast recovery)
+ *   timeout               ssthresh = max(cwnd / 2, 2), cwnd = 1 (back to slow start)
+ *
+ * The sender reacts to at most one loss per window of data, so this class does not track recovery itself.
+ */
+public class RenoCongestionController implements CongestionController {
+    public static final int INITIAL_WINDOW = 2;
+    public static final int INITIAL_SSTHRESH = 64;
+    private static final int MIN_SSTHRESH = 2;
+
+    private double cwnd;
+    private int ssthresh;
+
+    public RenoCongestionController() {
+        this(INITIAL_WINDOW, INITIAL_SSTHRESH);
+    }
+
+    public RenoCongestionController(int initialWindow, int initialSlowStartThreshold) {
+        this.cwnd = Math.max(1, initialWindow);
+        this.ssthresh = Math.max(MIN_SSTHRESH, initialSlowStartThreshold);
+    }
+
+    @Override
+    public int getWindow() {
+        return Math.max(1, (int) cwnd);
+    }
+
+    @Override
+    public int getSlowStartThreshold() {
+        return ssthresh;
+    }
+
+    @Override
+    public void onAck(int newlyAcked, long rttMillis) {
+        for (int i = 0; i < newlyAcked; i++) {
+            if (cwnd < ssthresh) {
+                cwnd += 1;
+            } else {
+                cwnd += 1 / cwnd;
+            }
+        }
+    }
+
+    @Override
+    public void onDuplicateAckLoss() {
+        ssthresh = Math.max(MIN_SSTHRESH, getWindow() / 2);
+        cwnd = ssthresh;
+    }
+
+    @Override
+    public void onTimeout() {
+        ssthresh = Math.max(MIN_SSTHRESH, getWindow() / 2);
+        cwnd = 1;
+    }
+
+    @Override
+    public String getName() {
+        return "reno";
+    }
+}
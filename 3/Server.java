@@ -1,18 +1,25 @@
 import java.net.*;
 import java.io.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 public class Server {
-    private static final int PORT = 5000;
-    private static final int BUFFER_SIZE = 1024;
+    // rdt.port moves the server, e.g. behind the folder 4 ImpairmentProxy on 5000
+    private static final int PORT = Integer.getInteger("rdt.port", 5000);
     private DatagramSocket socket;
     private boolean running;
     private final ClientManager clientManager;
+    private final BufferPool bufferPool = BufferPool.shared();
+    private long malformedPackets = 0;
     private final RDTProtocol rdtProtocol;
 
     public Server() throws SocketException {
+        this(null);
+    }
+
+    public Server(ExecutorService sessionExecutor) throws SocketException {
         socket = new DatagramSocket(PORT);
-        clientManager = new ClientManager(socket);
+        clientManager = new ClientManager(socket, sessionExecutor);
         rdtProtocol = new RDTProtocol(socket);
     }
 
@@ -20,17 +27,20 @@ public class Server {
         running = true;
         System.out.println("Server started on port " + PORT);
         
+        // The loop is the only reader, so it holds one pooled buffer, one DatagramPacket and one
+        // ByteBuffer view for its whole life; each datagram is decoded in place and its payload
+        // copied out, so the only per-packet allocation is the decoded Packet
+        byte[] receiveBuffer = bufferPool.acquire();
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
         try {
             while (running) {
-                byte[] receiveBuffer = new byte[BUFFER_SIZE];
-                DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-
-                socket.receive(receivePacket);
+                receivePacket.setLength(receiveBuffer.length);
                 
                 try {
-                    Packet packet = Packet.fromBytes(
-                        Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                    );
+                    socket.receive(receivePacket);
+                    receiveView.clear().limit(receivePacket.getLength());
+                    Packet packet = Packet.fromBuffer(receiveView);
                     
                     if (!packet.isValid()) {
                         sendNACK(receivePacket.getAddress(), receivePacket.getPort(), packet.getSequenceNumber());
@@ -39,26 +49,21 @@ public class Server {
 
                     processPacket(packet, receivePacket.getAddress(), receivePacket.getPort());
                     
-                } catch (ClassNotFoundException e) {
+                } catch (ProtocolException e) {
+                    malformedPackets++;
                     System.err.println("Error packet: " + e.getMessage());
                 }
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
         } finally {
+            bufferPool.release(receiveBuffer);
             stop();
         }
     }
 
-    private void processPacket(Packet packet, InetAddress clientAddress, int clientPort) throws IOException {
-        clientManager.handleClient(clientAddress, clientPort);
-        
-        Packet ackPacket = new Packet(
-            Packet.PacketType.ACK,
-            packet.getSequenceNumber(),
-            null
-        );
-        rdtProtocol.sendPacket(ackPacket, clientAddress, clientPort);
+    private void processPacket(Packet packet, InetAddress clientAddress, int clientPort) {
+        clientManager.dispatch(packet, clientAddress, clientPort);
     }
 
     private void sendNACK(InetAddress clientAddress, int clientPort, int sequenceNumber) throws IOException {
@@ -68,11 +73,17 @@ public class Server {
             null
         );
         
-        rdtProtocol.sendPacket(nackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(nackPacket, clientAddress, clientPort);
     }
 
     public void stop() {
         running = false;
+        System.out.println("Dispatcher stats - Routed: " + clientManager.getRoutedPackets() +
+                           ", Dropped: " + clientManager.getDroppedPackets() +
+                           ", Malformed: " + malformedPackets);
+        System.out.println("Session stats - Live: " + clientManager.getLiveSessions() +
+                           ", Evicted: " + clientManager.getEvictedSessions() +
+                           ", Peak: " + clientManager.getPeakSessions());
         clientManager.stopAll();
         rdtProtocol.stop();
         if (socket != null && !socket.isClosed()) {
@@ -81,10 +92,15 @@ public class Server {
     }
 
     public static void main(String[] args) {
+        // "--virtual-threads" runs each client session on a virtual thread instead of a platform thread
         try {
-            Server server = new Server();
+            ExecutorService sessionExecutor = null;
+            if (args.length > 0 && args[0].equals("--virtual-threads")) {
+                sessionExecutor = ClientManager.newVirtualThreadExecutor();
+            }
+            Server server = new Server(sessionExecutor);
             server.start();
-        } catch (SocketException e) {
+        } catch (SocketException | UnsupportedOperationException e) {
             System.err.println("Could not start server: " + e.getMessage());
         }
     }
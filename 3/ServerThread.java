@@ -1,22 +1,36 @@
 import java.net.*;
 import java.io.*;
-import java.util.Arrays;
+import java.util.concurrent.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 public class ServerThread extends Thread {
     private final DatagramSocket socket;
     private final InetAddress clientAddress;
     private final int clientPort;
     private final RDTProtocol rdtProtocol;
-    private boolean running;
+    private volatile boolean running;
     private final CommunicationLogger logger;
+    private static final int INBOUND_CAPACITY = 256;
+    private static final long POLL_INTERVAL = 100;
+    private final BlockingQueue<Packet> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
     private final String transactionId;
     private final long startTime;
     private int packetsSent = 0;
     private int packetsReceived = 0;
     private final List<Long> rttMeasurements;
-    private static final int MAX_PACKET_SIZE = 1024 * 64; // 64KB max packet size
+    private static final int RECEIVE_WINDOW = 32;
+    private final ReceiveWindow receiveWindow;
+    private final AckCoalescer ackCoalescer = new AckCoalescer();
+    private final FragmentReassembler reassembler;
+    private static final String RECEIVE_DIRECTORY = "received_files";
+    private static final long MAX_FILE_LENGTH = Long.getLong("rdt.transfer.maxBytes", 1L << 30);
+    private static final int MAX_TRANSFERS = Integer.getInteger("rdt.transfer.max", 4);
+    private static final long TRANSFER_IDLE_TIMEOUT = Long.getLong("rdt.transfer.idleTimeout", 30000);
+    private final Map<Integer, MappedFileWriter> transfers = new HashMap<>();
 
     public ServerThread(DatagramSocket socket, InetAddress clientAddress, int clientPort) {
         this.socket = socket;
@@ -28,28 +42,39 @@ public class ServerThread extends Thread {
         this.startTime = System.currentTimeMillis();
         this.transactionId = logger.startTransaction(clientAddress.getHostAddress(), clientPort);
         this.rttMeasurements = new ArrayList<>();
+        this.receiveWindow = new ReceiveWindow(RECEIVE_WINDOW);
+        this.reassembler = new FragmentReassembler();
     }
 
     @Override
     public void run() {
         try {
             while (running) {
-                byte[] receiveData = new byte[MAX_PACKET_SIZE];
-                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                
                 long receiveTime = System.currentTimeMillis();
-                socket.receive(receivePacket);
-
-                if (!receivePacket.getAddress().equals(clientAddress) || 
-                    receivePacket.getPort() != clientPort) {
+                Packet packet = inbound.poll(ackCoalescer.pollTimeout(receiveTime, POLL_INTERVAL),
+                                             TimeUnit.MILLISECONDS);
+                // Every pass, so a stalled reassembly frees its budget whatever else the client sends
+                reassembler.expire(System.currentTimeMillis());
+                expireTransfers(System.currentTimeMillis());
+                if (packet == null) {
+                    if (ackCoalescer.isDue(System.currentTimeMillis())) {
+                        sendACK();
+                    }
                     continue;
                 }
 
-                Packet packet = Packet.fromBytes(
-                    Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                );
-
-                if (packet.getData().length > MAX_PACKET_SIZE) {
+                if (!packet.isValid()) {
+                    sendNACK(packet.getSequenceNumber());
+                    continue;
+                }
+                // A fragment the reassembler refuses must not be acknowledged; the NACK makes the sender retry or give up
+                if (packet.isFragment() && receiveWindow.isNew(packet.getSequenceNumber()) &&
+                    !reassembler.admit(packet, System.currentTimeMillis())) {
+                    sendNACK(packet.getSequenceNumber());
+                    continue;
+                }
+                if (packet.isFileSegment() && receiveWindow.isNew(packet.getSequenceNumber()) &&
+                    !admitFileSegment(packet)) {
                     sendNACK(packet.getSequenceNumber());
                     continue;
                 }
@@ -57,26 +82,153 @@ public class ServerThread extends Thread {
                 long rtt = System.currentTimeMillis() - receiveTime;
                 rttMeasurements.add(rtt);
                 
-                processPacket(packet, rtt);
+                List<Packet> delivered = receiveWindow.receive(packet);
+                for (Packet next : delivered) {
+                    processPacket(next);
+                }
+                // Gaps, duplicates and filled holes are acknowledged at once; only a clean in-order run is coalesced
+                boolean inOrder = delivered.size() == 1 && receiveWindow.getBufferedCount() == 0;
+                if (!inOrder || ackCoalescer.onInOrder(System.currentTimeMillis(), !inbound.isEmpty())) {
+                    sendACK();
+                }
+            }
+            if (ackCoalescer.hasPending()) {
+                sendACK();
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Error in ServerThread: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            closeTransfers();
+            reassembler.clear();
             rdtProtocol.stop();
         }
     }
 
-    private void processPacket(Packet packet, long rtt) throws IOException {
-        System.out.println("Processing large packet " + packet.getSequenceNumber() + 
-                         " from client " + clientAddress + ":" + clientPort + 
-                         " (size: " + packet.getData().length + " bytes)");
+    private void processPacket(Packet packet) throws IOException {
         packetsReceived++;
         logger.logPacketReceived(transactionId, packet);
+        if (packet.isFileSegment()) {
+            processFileSegment(packet);
+            return;
+        }
+        if (!packet.isFragment()) {
+            processMessage(packet.getSequenceNumber(), packet.getData(), 1);
+            return;
+        }
+
+        // Fragments are copied into their message's buffer; the message is handled once the last one lands
+        byte[] message = reassembler.accept(packet, System.currentTimeMillis());
+        if (message != null) {
+            int firstSequenceNumber = Math.floorMod(packet.getSequenceNumber() - packet.getFragmentIndex(),
+                                                    RDTProtocol.SEQUENCE_SPACE);
+            processMessage(firstSequenceNumber, message, packet.getFragmentCount());
+        }
+    }
+
+    private void processMessage(int sequenceNumber, byte[] message, int fragmentCount) {
+        System.out.println("Processing large packet " + sequenceNumber + 
+                         " from client " + clientAddress + ":" + clientPort + 
+                         " (size: " + message.length + " bytes, fragments: " + fragmentCount + ")");
+    }
+
+    /*
+     * Checked before a segment is acknowledged. The first segment of a transfer opens its
+     * destination, unless the announced length is over MAX_FILE_LENGTH or MAX_TRANSFERS are
+     * already open; a segment that does not fit its transfer's file is refused as well.
+     */
+    private boolean admitFileSegment(Packet packet) {
+        MappedFileWriter writer = transfers.get(packet.getTransferId());
+        if (writer == null) {
+            if (packet.getFileLength() > MAX_FILE_LENGTH || transfers.size() >= MAX_TRANSFERS) {
+                return false;
+            }
+            File directory = new File(RECEIVE_DIRECTORY);
+            if (!directory.exists()) {
+                directory.mkdir();
+            }
+            File destination = new File(directory, "transfer_" + fileNameOf(clientAddress) + "_" + clientPort + "_" +
+                                                   packet.getTransferId() + ".bin");
+            try {
+                writer = new MappedFileWriter(destination.toPath(), packet.getFileLength());
+            } catch (IOException e) {
+                System.err.println("Cannot receive into " + destination + ": " + e.getMessage());
+                return false;
+            }
+            transfers.put(packet.getTransferId(), writer);
+        }
+        return writer.getFileLength() == packet.getFileLength() &&
+               writer.fits(packet.getFileOffset(), packet.getData().length);
+    }
+
+    // Clients on different hosts may share a port and transfer ids, so the host is part of the name;
+    // IPv6 colons and scope ids are not valid in every file system
+    private static String fileNameOf(InetAddress address) {
+        return address.getHostAddress().replaceAll("[^A-Za-z0-9.]", "-");
+    }
+
+    // File segments are written into the mapped destination at their offset as soon as they are delivered
+    private void processFileSegment(Packet packet) throws IOException {
+        MappedFileWriter writer = transfers.get(packet.getTransferId());
+        if (writer == null) {
+            // Its transfer expired while the segment waited in the receive window
+            return;
+        }
+        if (!writer.write(packet.getFileOffset(), packet.getData())) {
+            return;
+        }
+
+        transfers.remove(packet.getTransferId());
+        writer.close();
+        long elapsed = Math.max(1, writer.getElapsedMillis());
+        System.out.println(String.format("Received file %s from client %s:%d (%d bytes in %dms, %.2f MB/s)",
+                           writer.getDestination(), clientAddress, clientPort, writer.getFileLength(), elapsed,
+                           writer.getFileLength() / 1048576.0 / (elapsed / 1000.0)));
+    }
+
+    // A transfer that has not moved for TRANSFER_IDLE_TIMEOUT is abandoned and its partial file deleted
+    private void expireTransfers(long now) {
+        Iterator<MappedFileWriter> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            MappedFileWriter writer = iterator.next();
+            if (writer.getIdleMillis(now) >= TRANSFER_IDLE_TIMEOUT) {
+                iterator.remove();
+                abortTransfer(writer);
+            }
+        }
+    }
+
+    // Only complete files are kept; whatever is still open when the session ends is incomplete
+    private void closeTransfers() {
+        for (MappedFileWriter writer : transfers.values()) {
+            abortTransfer(writer);
+        }
+        transfers.clear();
+    }
+
+    private void abortTransfer(MappedFileWriter writer) {
+        System.out.println("Abandoned transfer " + writer.getDestination() + " after " +
+                           writer.getBytesWritten() + " of " + writer.getFileLength() + " bytes");
+        try {
+            writer.abort();
+        } catch (IOException e) {
+            System.err.println("Error deleting " + writer.getDestination() + ": " + e.getMessage());
+        }
+    }
+
+    // ACKs and NACKs go straight to the socket: nothing acknowledges them, so there is no reply to wait for
+    private void sendACK() throws IOException {
+        Packet ackPacket = new Packet(
+            Packet.PacketType.ACK,
+            receiveWindow.getLastInOrder(),
+            null
+        ).withSelectiveAcks(receiveWindow.getSelectiveAcks()).withReceiveWindow(advertisedWindow());
         
-        sendACK(packet.getSequenceNumber());
-        
-        // Store RTT measurement but use standard logging
-        logger.logPacketSent(transactionId, packet);
+        rdtProtocol.sendControl(ackPacket, clientAddress, clientPort);
+        packetsSent++;
+        logger.logPacketSent(transactionId, ackPacket);
+        ackCoalescer.onAckSent();
     }
 
     private void sendNACK(int sequenceNumber) throws IOException {
@@ -86,19 +238,16 @@ public class ServerThread extends Thread {
             null
         );
         
-        rdtProtocol.sendPacket(nackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(nackPacket, clientAddress, clientPort);
     }
 
-    private void sendACK(int sequenceNumber) throws IOException {
-        Packet ackPacket = new Packet(
-            Packet.PacketType.ACK,
-            sequenceNumber,
-            null
-        );
-        
-        rdtProtocol.sendPacket(ackPacket, clientAddress, clientPort);
-        packetsSent++;
-        logger.logPacketSent(transactionId, ackPacket);
+    // Flow control: advertise what the inbound queue can still hold, capped by how far ahead the reorder buffer reaches
+    private int advertisedWindow() {
+        return Math.min(inbound.remainingCapacity(), receiveWindow.getCapacity());
+    }
+
+    public boolean deliver(Packet packet) {
+        return running && inbound.offer(packet);
     }
 
     public void stopThread() {
@@ -112,5 +261,8 @@ public class ServerThread extends Thread {
                             clientPort, startTime, packetsSent, packetsReceived, averageRTT);
                             
         System.out.println(String.format("Server Thread stopping - Average RTT: %.2fms", averageRTT));
+        System.out.println("Reassembly stats - Completed: " + reassembler.getCompletedMessages() +
+                           ", Expired: " + reassembler.getExpiredMessages() +
+                           ", Rejected fragments: " + reassembler.getRejectedFragments());
     }
 } 
\ No newline at end of file
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+ * Open-addressed map from a packed endpoint key to a session. All storage is allocated up front,
+ * so lookups and inserts never allocate. Entries are also linked in access order (most recent at
+ * the head), which makes the least recently used entry - and every idle one - reachable from the
+ * tail without scanning the table. Not thread-safe; ClientManager guards it.
+ */
+public class SessionTable<V> {
+    private static final int NONE = -1;
+
+    private final int maxEntries;
+    private final int mask;
+    private final int[] index;
+    private final long[] keys;
+    private final Object[] values;
+    private final long[] lastSeen;
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int free;
+    private int size;
+
+    public SessionTable(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        int slots = 2;
+        while (slots < maxEntries * 2) {
+            slots <<= 1;
+        }
+        this.mask = slots - 1;
+        this.index = new int[slots];
+        Arrays.fill(index, NONE);
+        this.keys = new long[maxEntries];
+        this.values = new Object[maxEntries];
+        this.lastSeen = new long[maxEntries];
+        this.prev = new int[maxEntries];
+        this.next = new int[maxEntries];
+        for (int i = 0; i < maxEntries; i++) {
+            next[i] = i + 1 < maxEntries ? i + 1 : NONE;
+        }
+        this.free = 0;
+    }
+
+    // Returns the session for the key and marks it as used at now
+    @SuppressWarnings("unchecked")
+    public V get(long key, long now) {
+        int entry = find(key);
+        if (entry == NONE) {
+            return null;
+        }
+        lastSeen[entry] = now;
+        if (entry != head) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+        return (V) values[entry];
+    }
+
+    // Returns the session for the key without marking it as used
+    @SuppressWarnings("unchecked")
+    public V peek(long key) {
+        int entry = find(key);
+        return entry == NONE ? null : (V) values[entry];
+    }
+
+    // The key must not already be present and the table must not be full
+    public void put(long key, V value, long now) {
+        if (free == NONE) {
+            throw new IllegalStateException("Session table is full");
+        }
+        int entry = free;
+        free = next[entry];
+        keys[entry] = key;
+        values[entry] = value;
+        lastSeen[entry] = now;
+        linkFirst(entry);
+
+        int slot = hash(key) & mask;
+        while (index[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = hash(key) & mask;
+        while (index[slot] != NONE) {
+            int entry = index[slot];
+            if (keys[entry] == key) {
+                V value = (V) values[entry];
+                deleteSlot(slot);
+                unlink(entry);
+                values[entry] = null;
+                next[entry] = free;
+                free = entry;
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == maxEntries;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return maxEntries;
+    }
+
+    // Key of the least recently used entry; only meaningful when the table is not empty
+    public long eldestKey() {
+        return keys[tail];
+    }
+
+    public long eldestLastSeen() {
+        return lastSeen[tail];
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<V> action) {
+        for (int entry = head; entry != NONE; entry = next[entry]) {
+            action.accept((V) values[entry]);
+        }
+    }
+
+    public void clear() {
+        while (!isEmpty()) {
+            remove(eldestKey());
+        }
+    }
+
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        while (index[slot] != NONE) {
+            int entry = index[slot];
+            if (keys[entry] == key) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    // Backward-shift deletion keeps every probe chain unbroken without tombstones
+    private void deleteSlot(int hole) {
+        int slot = (hole + 1) & mask;
+        while (index[slot] != NONE) {
+            int home = hash(keys[index[slot]]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[hole] = NONE;
+    }
+
+    private void linkFirst(int entry) {
+        prev[entry] = NONE;
+        next[entry] = head;
+        if (head != NONE) {
+            prev[head] = entry;
+        }
+        head = entry;
+        if (tail == NONE) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(int entry) {
+        if (prev[entry] != NONE) {
+            next[prev[entry]] = next[entry];
+        } else {
+            head = next[entry];
+        }
+        if (next[entry] != NONE) {
+            prev[next[entry]] = prev[entry];
+        } else {
+            tail = prev[entry];
+        }
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,216 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/*
+ * Fixed big-endian header followed by the payload:
+ *
+ *   version:1 type:1 flags:1 sequence:4 length:4 checksum:8 timestamp:8 | extensions | data:length
+ *
+ * A length of -1 marks a packet without data (ACK/NACK), so control packets are HEADER_SIZE bytes.
+ * Optional extensions follow the header in flag order and are only present when their flag is set:
+ *
+ *   FLAG_SACK       selectiveAcks:8
+ *   FLAG_FRAGMENT   fragmentIndex:2 fragmentCount:2 fragmentOffset:4 messageLength:4
+ *   FLAG_FILE       transferId:4 fileOffset:8 fileLength:8
+ *   FLAG_WINDOW     receiveWindow:2
+ *
+ * FLAG_BATCH has no extension; it marks data as length-prefixed messages packed by MessageBatcher.
+ */
+public class BinaryPacketCodec implements PacketCodec {
+    public static final int HEADER_SIZE = 27;
+    public static final int FLAG_SACK = 0x01;
+    public static final int FLAG_FRAGMENT = 0x02;
+    public static final int FRAGMENT_EXTENSION_SIZE = 12;
+    public static final int MAX_FRAGMENTS = 0xFFFF;
+    public static final int FLAG_FILE = 0x04;
+    public static final int FILE_EXTENSION_SIZE = 20;
+    public static final int FLAG_WINDOW = 0x08;
+    public static final int WINDOW_EXTENSION_SIZE = 2;
+    public static final int FLAG_BATCH = 0x10;
+    private static final Packet.PacketType[] TYPES = Packet.PacketType.values();
+
+    @Override
+    public int version() {
+        return BINARY_VERSION;
+    }
+
+    @Override
+    public byte[] encode(Packet packet) {
+        byte[] data = packet.getData();
+        int dataLength = data != null ? data.length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(packet) + dataLength);
+        encode(packet, buffer);
+        return buffer.array();
+    }
+
+    public static int encodedSize(Packet packet) {
+        int size = HEADER_SIZE;
+        if (packet.getSelectiveAcks() != 0) {
+            size += Long.BYTES;
+        }
+        if (packet.isFragment()) {
+            size += FRAGMENT_EXTENSION_SIZE;
+        }
+        if (packet.isFileSegment()) {
+            size += FILE_EXTENSION_SIZE;
+        }
+        if (packet.hasReceiveWindow()) {
+            size += WINDOW_EXTENSION_SIZE;
+        }
+        return size;
+    }
+
+    private static int flagsOf(Packet packet) {
+        int flags = 0;
+        if (packet.getSelectiveAcks() != 0) {
+            flags |= FLAG_SACK;
+        }
+        if (packet.isFragment()) {
+            flags |= FLAG_FRAGMENT;
+        }
+        if (packet.isFileSegment()) {
+            flags |= FLAG_FILE;
+        }
+        if (packet.hasReceiveWindow()) {
+            flags |= FLAG_WINDOW;
+        }
+        if (packet.isBatch()) {
+            flags |= FLAG_BATCH;
+        }
+        return flags;
+    }
+
+    public void encode(Packet packet, ByteBuffer buffer) {
+        byte[] data = packet.getData();
+        int flags = flagsOf(packet);
+        buffer.put((byte) BINARY_VERSION);
+        buffer.put((byte) packet.getType().ordinal());
+        buffer.put((byte) flags);
+        buffer.putInt(packet.getSequenceNumber());
+        buffer.putInt(data != null ? data.length : -1);
+        buffer.putLong(packet.getChecksum());
+        buffer.putLong(packet.getTimestamp());
+        if ((flags & FLAG_SACK) != 0) {
+            buffer.putLong(packet.getSelectiveAcks());
+        }
+        if ((flags & FLAG_FRAGMENT) != 0) {
+            buffer.putShort((short) packet.getFragmentIndex());
+            buffer.putShort((short) packet.getFragmentCount());
+            buffer.putInt(packet.getFragmentOffset());
+            buffer.putInt(packet.getMessageLength());
+        }
+        if ((flags & FLAG_FILE) != 0) {
+            buffer.putInt(packet.getTransferId());
+            buffer.putLong(packet.getFileOffset());
+            buffer.putLong(packet.getFileLength());
+        }
+        if ((flags & FLAG_WINDOW) != 0) {
+            buffer.putShort((short) packet.getReceiveWindow());
+        }
+        if (data != null) {
+            buffer.put(data);
+        }
+    }
+
+    @Override
+    public Packet decode(byte[] bytes, int offset, int length) throws ProtocolException {
+        return decode(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    public Packet decode(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new ProtocolException("Truncated header: " + buffer.remaining() + " bytes");
+        }
+        int version = buffer.get();
+        if (version != BINARY_VERSION) {
+            throw new ProtocolException("Unexpected packet version: " + version);
+        }
+        int typeOrdinal = buffer.get();
+        if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) {
+            throw new ProtocolException("Unknown packet type: " + typeOrdinal);
+        }
+        int flags = buffer.get();
+        int sequenceNumber = buffer.getInt();
+        int dataLength = buffer.getInt();
+        if (dataLength < -1) {
+            throw new ProtocolException("Negative data length: " + dataLength);
+        }
+        long checksum = buffer.getLong();
+        long timestamp = buffer.getLong();
+
+        long selectiveAcks = 0;
+        if ((flags & FLAG_SACK) != 0) {
+            if (buffer.remaining() < Long.BYTES) {
+                throw new ProtocolException("Truncated SACK extension");
+            }
+            selectiveAcks = buffer.getLong();
+        }
+
+        int fragmentIndex = 0;
+        int fragmentCount = 0;
+        int fragmentOffset = 0;
+        int messageLength = 0;
+        if ((flags & FLAG_FRAGMENT) != 0) {
+            if (buffer.remaining() < FRAGMENT_EXTENSION_SIZE) {
+                throw new ProtocolException("Truncated fragment extension");
+            }
+            fragmentIndex = buffer.getShort() & 0xFFFF;
+            fragmentCount = buffer.getShort() & 0xFFFF;
+            fragmentOffset = buffer.getInt();
+            messageLength = buffer.getInt();
+            if (fragmentCount == 0 || fragmentIndex >= fragmentCount || fragmentOffset < 0 ||
+                    dataLength < 0 || (long) fragmentOffset + dataLength > messageLength) {
+                throw new ProtocolException("Inconsistent fragment " + fragmentIndex + "/" + fragmentCount +
+                                            " at offset " + fragmentOffset + " of " + messageLength);
+            }
+        }
+
+        int transferId = 0;
+        long fileOffset = 0;
+        long fileLength = 0;
+        if ((flags & FLAG_FILE) != 0) {
+            if (buffer.remaining() < FILE_EXTENSION_SIZE) {
+                throw new ProtocolException("Truncated file extension");
+            }
+            transferId = buffer.getInt();
+            fileOffset = buffer.getLong();
+            fileLength = buffer.getLong();
+            if (fileLength <= 0 || fileOffset < 0 || dataLength < 0 || fileOffset + dataLength > fileLength) {
+                throw new ProtocolException("Inconsistent file segment at offset " + fileOffset + " of " + fileLength);
+            }
+        }
+
+        int receiveWindow = Packet.NO_RECEIVE_WINDOW;
+        if ((flags & FLAG_WINDOW) != 0) {
+            if (buffer.remaining() < WINDOW_EXTENSION_SIZE) {
+                throw new ProtocolException("Truncated window extension");
+            }
+            receiveWindow = buffer.getShort() & 0xFFFF;
+        }
+
+        byte[] data = null;
+        if (dataLength >= 0) {
+            if (dataLength > buffer.remaining()) {
+                throw new ProtocolException("Declared length " + dataLength +
+                                            " exceeds datagram (" + buffer.remaining() + " bytes)");
+            }
+            data = new byte[dataLength];
+            buffer.get(data);
+        }
+        Packet packet = new Packet(TYPES[typeOrdinal], sequenceNumber, data, checksum, timestamp);
+        packet.setSelectiveAcks(selectiveAcks);
+        if (fragmentCount > 0) {
+            packet.setFragment(fragmentIndex, fragmentCount, fragmentOffset, messageLength);
+        }
+        if (fileLength > 0) {
+            packet.setFileSegment(transferId, fileOffset, fileLength);
+        }
+        if (receiveWindow != Packet.NO_RECEIVE_WINDOW) {
+            packet.setReceiveWindow(receiveWindow);
+        }
+        if ((flags & FLAG_BATCH) != 0) {
+            packet.setBatch();
+        }
+        return packet;
+    }
+}
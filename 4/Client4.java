@@ -1,38 +1,84 @@
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/*
+ * Client for the network simulation test. sendMessage() puts both directions of the link through
+ * a simulator: each DATA packet crosses networkSimulator on the way out, and each reply read from
+ * the socket crosses replySimulator before the client sees it, so ACKs and NACKs are lost,
+ * delayed and duplicated too. The two directions share one delay line and draw from separate
+ * seeds. The windowed and async paths talk to the socket directly.
+ */
 public class Client4 {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 5000;
     private static final int BUFFER_SIZE = 1024;
-    private static final int TIMEOUT = 5000;
 
     private final DatagramSocket socket;
     private final InetAddress serverAddress;
     private int sequenceNumber;
+    private final RtoEstimator rtoEstimator;
+    private AsyncSender asyncSender;
     private final NetworkSimulator networkSimulator;
+    private final NetworkSimulator replySimulator;
+    private final BlockingQueue<byte[]> replies = new LinkedBlockingQueue<>();
     private final List<Long> rttMeasurements;
     private final CommunicationLogger logger;
     private final String sessionId;
     private final long startTime;
     private int packetsSent = 0;
     private int packetsReceived = 0;
+    private final RDTProtocol rdtProtocol;
 
     public Client4() throws SocketException, UnknownHostException {
+        this(1);
+    }
+
+    public Client4(int windowSize) throws SocketException, UnknownHostException {
         socket = new DatagramSocket();
-        socket.setSoTimeout(TIMEOUT);
         serverAddress = InetAddress.getByName(SERVER_ADDRESS);
         sequenceNumber = 0;
 
-        networkSimulator = new NetworkSimulator(0.1, 0.1, 50, 200);
+        // rdt.sim.seed replays the same link behaviour from run to run; rdt.sim.trace replays a recorded one
+        NetworkTrace trace = loadTrace();
+        long seed = Long.getLong("rdt.sim.seed", System.nanoTime());
+        networkSimulator = trace != null ? NetworkSimulator.replay(trace, null)
+                                         : NetworkSimulator.wanProfile(seed, null);
+        DelayLine delayLine = networkSimulator.getDelayLine();
+        replySimulator = trace != null ? NetworkSimulator.replay(trace, delayLine)
+                                       : NetworkSimulator.wanProfile(seed + 1, delayLine);
+        // rdt.sim.timeline changes the link's conditions while the test runs
+        NetworkTimeline.startFromProperty(networkSimulator, replySimulator);
         this.rttMeasurements = new ArrayList<>();
         this.logger = new CommunicationLogger();
         this.startTime = System.currentTimeMillis();
         this.sessionId = logger.startTransaction(socket.getLocalAddress().getHostAddress(), 
                                                socket.getLocalPort());
+        this.rdtProtocol = new RDTProtocol(socket, sessionId, windowSize);
+        this.rtoEstimator = rdtProtocol.getRtoEstimator();
+    }
+
+    // Both directions replay the same trace, each from its own first packet
+    private static NetworkTrace loadTrace() {
+        String tracePath = System.getProperty("rdt.sim.trace");
+        if (tracePath == null) {
+            return null;
+        }
+        try {
+            NetworkTrace trace = NetworkTrace.load(tracePath);
+            System.out.println("Replaying " + trace);
+            return trace;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not load trace " + tracePath + ", using the WAN profile: " + e.getMessage());
+            return null;
+        }
     }
 
     public boolean sendMessage(String message) {
@@ -43,50 +89,42 @@ public class Client4 {
                 message.getBytes()
             );
 
-            byte[] sendData = networkSimulator.maybeCorruptPacket(packet.toBytes());
-            
-            DatagramPacket sendPacket = new DatagramPacket(
-                sendData,
-                sendData.length,
-                serverAddress,
-                SERVER_PORT
-            );
+            byte[] sendData = packet.toBytes();
 
             int attempts = 0;
             int maxAttempts = 3;
             
             while (attempts < maxAttempts) {
                 long sendTime = System.currentTimeMillis();
+                long deadline = sendTime + rtoEstimator.getRto();
                 
-                if (networkSimulator.shouldDropPacket()) {
+                // The send is scheduled after the simulated link; the wait for the ACK covers it
+                if (networkSimulator.transmit(sendData, bytes -> send(new DatagramPacket(
+                        bytes, bytes.length, serverAddress, SERVER_PORT))) == 0) {
                     logger.logPacketDropped(sessionId, packet);
                     attempts++;
                     continue;
                 }
-
-                networkSimulator.simulateNetworkDelay();
-                socket.send(sendPacket);
                 packetsSent++;
                 logger.logPacketSent(sessionId, packet);
 
                 try {
-                    byte[] receiveData = new byte[BUFFER_SIZE];
-                    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-
-                    socket.receive(receivePacket);
-
-                    networkSimulator.simulateNetworkDelay();
-
-                    Packet response = Packet.fromBytes(
-                        Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                    );
+                    Packet response;
+                    // ACKs for earlier packets, e.g. a late copy of a duplicated one, are skipped
+                    do {
+                        response = awaitReply(deadline);
+                    } while (response.getType() == Packet.PacketType.ACK &&
+                             response.getSequenceNumber() != sequenceNumber);
 
                     if (response.getType() == Packet.PacketType.ACK &&
                         response.getSequenceNumber() == sequenceNumber) {
                         long rtt = System.currentTimeMillis() - sendTime;
                         rttMeasurements.add(rtt);
                         packetsReceived++;
-                        sequenceNumber = (sequenceNumber + 1) % 2;
+                        if (attempts == 0) {
+                            rtoEstimator.sample(rtt);
+                        }
+                        sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, 1);
                         System.out.println(String.format("Packet RTT: %dms", rtt));
                         return true;
                     } else if (response.getType() == Packet.PacketType.NACK) {
@@ -96,19 +134,107 @@ public class Client4 {
                     }
 
                 } catch (SocketTimeoutException e) {
+                    rtoEstimator.backoff();
                     System.out.println("Client4 timeout, retrying... (Attempt " + (attempts + 1) + " of " + maxAttempts + ")");
                     attempts++;
                 }
             }
             return false;
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Client4 error: " + e.getMessage());
             return false;
         }
     }
 
+    /*
+     * Returns the next reply that has crossed replySimulator, or throws SocketTimeoutException at
+     * the deadline. A reply the simulator loses is never seen; one it delays may turn up after
+     * the deadline and is then picked up by the next attempt.
+     */
+    private Packet awaitReply(long deadline) throws IOException {
+        byte[] receiveData = new byte[BUFFER_SIZE];
+        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        try {
+            while (true) {
+                byte[] reply = replies.poll();
+                long remaining = deadline - System.currentTimeMillis();
+                if (reply == null && remaining > 0) {
+                    socket.setSoTimeout((int) remaining);
+                    socket.receive(receivePacket);
+                    byte[] received = Arrays.copyOf(receiveData, receivePacket.getLength());
+                    if (replySimulator.transmit(received, replies::offer) == 0) {
+                        continue;
+                    }
+                    reply = replies.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                if (reply == null) {
+                    throw new SocketTimeoutException("No reply within " + rtoEstimator.getRto() + "ms");
+                }
+                return Packet.fromBytes(reply);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a reply");
+        }
+    }
+
+    private void send(DatagramPacket sendPacket) {
+        try {
+            socket.send(sendPacket);
+        } catch (IOException e) {
+            System.err.println("Client4 error: " + e.getMessage());
+        }
+    }
+
+    // Selective Repeat: only the sequence numbers missing from the server's SACK bitmap are resent
+    public int sendMessages(List<String> messages) {
+        List<byte[]> payloads = new ArrayList<>();
+        for (String message : messages) {
+            payloads.add(message.getBytes());
+        }
+
+        try {
+            int delivered = rdtProtocol.sendSelectiveRepeat(payloads, sequenceNumber, serverAddress, SERVER_PORT);
+            sequenceNumber = RDTProtocol.nextSequenceNumber(sequenceNumber, delivered);
+            packetsSent += payloads.size();
+            packetsReceived += delivered;
+            return delivered;
+        } catch (IOException e) {
+            System.err.println("Client4 error: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Pipelined alternative to sendMessage(): returns without waiting for the ACK (blocking only while
+    // the in-flight limit is reached) and completes with the receipt. Uses its own socket and session.
+    public CompletableFuture<DeliveryReceipt> sendAsync(ByteBuffer message) {
+        try {
+            return asyncSender().sendAsync(message);
+        } catch (SocketException e) {
+            return AsyncSender.failed(e);
+        }
+    }
+
+    private synchronized AsyncSender asyncSender() throws SocketException {
+        if (asyncSender == null) {
+            asyncSender = new AsyncSender(serverAddress, SERVER_PORT, true);
+        }
+        return asyncSender;
+    }
+
+    public long getCurrentRto() {
+        return rtoEstimator.getRto();
+    }
+
     public void close() {
+        synchronized (this) {
+            if (asyncSender != null) {
+                asyncSender.close();
+            }
+        }
+        rdtProtocol.stop();
+        networkSimulator.stop();
         double averageRTT = rttMeasurements.stream()
                 .mapToLong(Long::longValue)
                 .average()
@@ -119,6 +245,8 @@ public class Client4 {
                             packetsReceived, averageRTT);
                             
         System.out.println(String.format("Client closing - Average RTT: %.2fms", averageRTT));
+        System.out.println("Simulated link: " + networkSimulator.getStatistics());
+        System.out.println("Simulated reply link: " + replySimulator.getStatistics());
                             
         if (socket != null && !socket.isClosed()) {
             socket.close();
@@ -126,8 +254,14 @@ public class Client4 {
     }
 
     public static void main(String[] args) {
+        // "--window N" sends all test messages with Selective Repeat instead of stop-and-wait
+        int windowSize = 1;
+        if (args.length == 2 && args[0].equals("--window")) {
+            windowSize = Integer.parseInt(args[1]);
+        }
+
         try {
-            Client4 client = new Client4();
+            Client4 client = new Client4(windowSize);
 
             String[] testMessages = {
                 "Test1: Basic Message",
@@ -137,6 +271,14 @@ public class Client4 {
                 "Test5: Final test message"
             };
 
+            if (windowSize > 1) {
+                int delivered = client.sendMessages(Arrays.asList(testMessages));
+                System.out.println("Delivered " + delivered + " of " + testMessages.length +
+                                   " messages (window " + windowSize + ")");
+                client.close();
+                return;
+            }
+
             for (String message : testMessages) {
                 System.out.println("\nClient4 attempting to send: " + message);
                 boolean success = client.sendMessage(message);
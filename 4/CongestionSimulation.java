@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Drives a bulk Selective Repeat transfer through NetworkSimulator on a VirtualClock, using the
+ * real CongestionController and RtoEstimator, so protocol variants can be compared over hours of
+ * simulated traffic in seconds of wall time:
+ *
+ *   java CongestionSimulation --hours 2 --window 64 --loss 0.01 --min-delay 20 --max-delay 80
+ *   java CongestionSimulation --burst 0.005 --burst-length 3 --bandwidth 10000 --queue 64
+ *                             --reorder 0.01 --duplicate 0.005 --seed 7
+ *   java CongestionSimulation --hours 0.05 --timeline outage.txt --interval 5
+ *   java CongestionSimulation --trace logs/communication_2024-11-10_17-25-07.log
+ *
+ * The sender detects loss the way RDTProtocol's Selective Repeat does: the receiver answers each
+ * DATA packet with a cumulative ACK and a SACK bitmap, a hole reported behind SACKed packets by
+ * SACK_HOLE_THRESHOLD ACKs is fast-retransmitted with one window reduction per loss episode, and
+ * only what those ACKs miss is left to the retransmission timer.
+ *
+ * DATA and ACK each cross their own chain of impairment stages (see Impairments); corruption is
+ * left out because the checksum path is exercised by the live test. Retransmission timers run on
+ * the same delay line, so everything happens in one virtual timeline, and a given --seed
+ * replays the same run. A --timeline file (see NetworkTimeline) changes both directions'
+ * conditions at set offsets; --interval prints goodput, cwnd and RTO every N seconds so the
+ * recovery after each step can be read off directly. --trace replaces the random loss and delay
+ * with a recorded NetworkTrace, replayed from its start in each direction.
+ */
+public class CongestionSimulation {
+    private static final int PAYLOAD_SIZE = RDTProtocol.MAX_DATAGRAM_SIZE - BinaryPacketCodec.HEADER_SIZE;
+    // Only the sizes matter to the stages; the contents are never read
+    private static final byte[] DATA_BYTES = new byte[RDTProtocol.MAX_DATAGRAM_SIZE];
+    private static final byte[] ACK_BYTES = new byte[BinaryPacketCodec.HEADER_SIZE];
+
+    private final NetworkSimulator forward;
+    private final NetworkSimulator reverse;
+    private final DelayLine delayLine;
+    private final CongestionController congestion;
+    private final RtoEstimator rtoEstimator = new RtoEstimator();
+    private final int windowSize;
+
+    // Sender state for sequence numbers [base, next), kept in rings of windowSize slots
+    private final long[] sendTimes;
+    private final boolean[] retransmitted;
+    private final boolean[] acknowledged;
+    private final int[] holeReports;
+    // Order of each packet's latest transmission, as RDTProtocol keeps it
+    private final long[] transmitOrder;
+    private long transmitCount = 0;
+    private final int[] timerGenerations;
+    private long base = 0;
+    private long next = 0;
+    // Holes below this belong to the loss episode the window was last reduced for
+    private long recoveryPoint = 0;
+
+    // Receiver state: next in-order sequence and the out-of-order ones already buffered
+    private final boolean[] received;
+    private long expected = 0;
+
+    private long dataSent = 0;
+    private long retransmissions = 0;
+    private long timeouts = 0;
+    private long fastRetransmissions = 0;
+    private long fastRecoveries = 0;
+    private long windowSamples = 0;
+    private long windowTotal = 0;
+    private long lastSampleBase = 0;
+
+    // forward carries DATA and reverse carries ACKs; both must share one virtual DelayLine
+    public CongestionSimulation(NetworkSimulator forward, NetworkSimulator reverse,
+                                CongestionController congestion, int windowSize) {
+        if (forward.getDelayLine() != reverse.getDelayLine() || !forward.getDelayLine().isVirtual()) {
+            throw new IllegalArgumentException("Both directions need the same virtual delay line");
+        }
+        this.forward = forward;
+        this.reverse = reverse;
+        this.delayLine = forward.getDelayLine();
+        this.congestion = congestion;
+        this.windowSize = windowSize;
+        this.sendTimes = new long[windowSize];
+        this.retransmitted = new boolean[windowSize];
+        this.acknowledged = new boolean[windowSize];
+        this.holeReports = new int[windowSize];
+        this.transmitOrder = new long[windowSize];
+        this.timerGenerations = new int[windowSize];
+        this.received = new boolean[windowSize];
+    }
+
+    public void run(long durationMillis) {
+        fillWindow();
+        delayLine.runUntil(delayLine.currentTimeMillis() + durationMillis);
+    }
+
+    // Reports progress every intervalMillis of simulated time from now on
+    public void sampleEvery(long intervalMillis) {
+        long startTime = delayLine.currentTimeMillis();
+        delayLine.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long delivered = base - lastSampleBase;
+                lastSampleBase = base;
+                System.out.println(String.format(
+                    "t=%ds goodput %.1f pkt/s, cwnd %d, RTO %dms, timeouts %d, fast retransmits %d",
+                    (delayLine.currentTimeMillis() - startTime) / 1000, delivered * 1000.0 / intervalMillis,
+                    congestion.getWindow(), rtoEstimator.getRto(), timeouts, fastRetransmissions));
+                delayLine.schedule(this, intervalMillis);
+            }
+        }, intervalMillis);
+    }
+
+    private void fillWindow() {
+        int allowed = Math.min(windowSize, congestion.getWindow());
+        while (next - base < allowed) {
+            int slot = (int) (next % windowSize);
+            retransmitted[slot] = false;
+            acknowledged[slot] = false;
+            holeReports[slot] = 0;
+            transmit(next++);
+        }
+        windowSamples++;
+        windowTotal += congestion.getWindow();
+    }
+
+    private void transmit(long sequence) {
+        int slot = (int) (sequence % windowSize);
+        sendTimes[slot] = delayLine.currentTimeMillis();
+        transmitOrder[slot] = ++transmitCount;
+        dataSent++;
+        int generation = ++timerGenerations[slot];
+        delayLine.schedule(() -> onTimeout(sequence, generation), rtoEstimator.getRto());
+        forward.transmit(DATA_BYTES, bytes -> onData(sequence));
+    }
+
+    // Answers like the folder 3 and 4 sessions: a cumulative ACK plus a SACK bitmap of what is buffered past the gap
+    private void onData(long sequence) {
+        if (sequence >= expected && sequence < expected + windowSize) {
+            received[(int) (sequence % windowSize)] = true;
+            while (received[(int) (expected % windowSize)]) {
+                received[(int) (expected % windowSize)] = false;
+                expected++;
+            }
+        }
+        long cumulative = expected;
+        long selectiveAcks = 0;
+        for (int bit = 0; bit < Long.SIZE && bit + 1 < windowSize; bit++) {
+            if (received[(int) ((expected + 1 + bit) % windowSize)]) {
+                selectiveAcks |= 1L << bit;
+            }
+        }
+        long sack = selectiveAcks;
+        reverse.transmit(ACK_BYTES, bytes -> onAck(cumulative, sack));
+    }
+
+    /*
+     * cumulative is the receiver's next expected sequence and bit i of selectiveAcks stands for
+     * cumulative + 1 + i. Mirrors the ACK handling in RDTProtocol.selectiveRepeat.
+     */
+    private void onAck(long cumulative, long selectiveAcks) {
+        // Older than a duplicate of base - 1: the real sender ignores it too
+        if (cumulative < base) {
+            return;
+        }
+        long rtt = CongestionController.NO_RTT_SAMPLE;
+        long lastInOrder = cumulative - 1;
+        if (lastInOrder >= base && lastInOrder < next) {
+            int slot = (int) (lastInOrder % windowSize);
+            if (!acknowledged[slot] && !retransmitted[slot]) {
+                rtt = delayLine.currentTimeMillis() - sendTimes[slot];
+                rtoEstimator.sample(rtt);
+            }
+        }
+        int newlyAcked = 0;
+        for (long s = base; s < Math.min(cumulative, next); s++) {
+            int slot = (int) (s % windowSize);
+            if (!acknowledged[slot]) {
+                acknowledged[slot] = true;
+                newlyAcked++;
+            }
+        }
+        long highestSacked = -1;
+        for (int bit = 0; bit < Long.SIZE && selectiveAcks != 0; bit++) {
+            long index = cumulative + 1 + bit;
+            if ((selectiveAcks & (1L << bit)) != 0 && index < next) {
+                int slot = (int) (index % windowSize);
+                if (!acknowledged[slot]) {
+                    acknowledged[slot] = true;
+                    newlyAcked++;
+                }
+                highestSacked = index;
+            }
+        }
+        if (newlyAcked > 0) {
+            congestion.onAck(newlyAcked, rtt);
+        }
+
+        long reportingOrder = highestSacked >= 0 ? transmitOrder[(int) (highestSacked % windowSize)] : 0;
+        for (long s = base; s < highestSacked; s++) {
+            int slot = (int) (s % windowSize);
+            if (!acknowledged[slot] && transmitOrder[slot] < reportingOrder &&
+                ++holeReports[slot] >= RDTProtocol.SACK_HOLE_THRESHOLD) {
+                if (s >= recoveryPoint) {
+                    congestion.onDuplicateAckLoss();
+                    fastRecoveries++;
+                    recoveryPoint = next;
+                }
+                holeReports[slot] = 0;
+                fastRetransmissions++;
+                retransmit(s);
+            }
+        }
+        while (base < next && acknowledged[(int) (base % windowSize)]) {
+            base++;
+        }
+        if (newlyAcked > 0) {
+            fillWindow();
+        }
+    }
+
+    private void onTimeout(long sequence, int generation) {
+        int slot = (int) (sequence % windowSize);
+        if (sequence < base || acknowledged[slot] || timerGenerations[slot] != generation) {
+            return;
+        }
+        timeouts++;
+        // One loss event per RTO: only the oldest outstanding packet backs off the timer
+        if (sequence == base) {
+            rtoEstimator.backoff();
+            congestion.onTimeout();
+        }
+        retransmit(sequence);
+    }
+
+    private void retransmit(long sequence) {
+        retransmitted[(int) (sequence % windowSize)] = true;
+        retransmissions++;
+        transmit(sequence);
+    }
+
+    public long getDelivered() {
+        return base;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getFastRetransmissions() {
+        return fastRetransmissions;
+    }
+
+    public long getFastRecoveries() {
+        return fastRecoveries;
+    }
+
+    public static void main(String[] args) {
+        double hours = 1;
+        int windowSize = 64;
+        double loss = 0.01;
+        int minDelay = 20;
+        int maxDelay = 80;
+        double burst = 0;
+        double burstLength = 3;
+        long bandwidth = 0;
+        long queue = 64;
+        double reorder = 0;
+        double duplicate = 0;
+        long seed = 1;
+        String timelinePath = null;
+        long interval = 0;
+        String tracePath = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--hours")) {
+                hours = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--window")) {
+                windowSize = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--loss")) {
+                loss = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--min-delay")) {
+                minDelay = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--max-delay")) {
+                maxDelay = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--burst")) {
+                burst = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--burst-length")) {
+                burstLength = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--bandwidth")) {
+                bandwidth = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--queue")) {
+                queue = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--reorder")) {
+                reorder = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--duplicate")) {
+                duplicate = Double.parseDouble(args[i + 1]);
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--timeline")) {
+                timelinePath = args[i + 1];
+            } else if (args[i].equals("--interval")) {
+                interval = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--trace")) {
+                tracePath = args[i + 1];
+            }
+        }
+
+        NetworkTrace trace = null;
+        if (tracePath != null) {
+            try {
+                trace = NetworkTrace.load(tracePath);
+                System.out.println("Replaying " + trace);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load trace " + tracePath + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        Random seeds = new Random(seed);
+        List<List<ImpairmentStage>> directions = new ArrayList<>();
+        for (int direction = 0; direction < 2; direction++) {
+            List<ImpairmentStage> stages = new ArrayList<>();
+            if (trace != null) {
+                stages.add(new Impairments.BandwidthLimit(bandwidth * 1000, queue * 1024));
+                stages.add(new Impairments.TraceReplay(trace));
+            } else {
+                if (burst > 0) {
+                    // --burst is the chance a burst starts; every packet inside one is lost
+                    stages.add(new Impairments.GilbertElliottLoss(burst, 1 / burstLength, 0, 1, seeds.nextLong()));
+                }
+                // Loss and bandwidth are always present, even at 0, so a timeline can turn them up
+                stages.add(new Impairments.BernoulliLoss(loss, seeds.nextLong()));
+                stages.add(new Impairments.BandwidthLimit(bandwidth * 1000, queue * 1024));
+                stages.add(new Impairments.Delay(minDelay, maxDelay, seeds.nextLong()));
+            }
+            if (reorder > 0) {
+                stages.add(new Impairments.Reordering(reorder, maxDelay - minDelay + 10, seeds.nextLong()));
+            }
+            if (duplicate > 0) {
+                stages.add(new Impairments.Duplication(duplicate, seeds.nextLong()));
+            }
+            directions.add(stages);
+        }
+
+        DelayLine delayLine = new DelayLine(new VirtualClock());
+        CongestionSimulation simulation = new CongestionSimulation(
+            new NetworkSimulator(delayLine, directions.get(0).toArray(new ImpairmentStage[0])),
+            new NetworkSimulator(delayLine, directions.get(1).toArray(new ImpairmentStage[0])),
+            new RenoCongestionController(), windowSize);
+        if (timelinePath != null) {
+            try {
+                NetworkTimeline.load(timelinePath).start(simulation.forward, simulation.reverse);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load timeline " + timelinePath + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (interval > 0) {
+            simulation.sampleEvery(interval * 1000);
+        }
+        long duration = (long) (hours * 3600 * 1000);
+        long startTime = System.currentTimeMillis();
+        simulation.run(duration);
+        long wallTime = System.currentTimeMillis() - startTime;
+
+        double seconds = duration / 1000.0;
+        String link = trace != null ? "trace " + trace.getSource()
+            : String.format("loss %.3f, delay %d-%dms, seed %d", loss, minDelay, maxDelay, seed);
+        System.out.println(String.format("Simulated %.2fh in %dms (%s, window %d, %s)",
+            hours, wallTime, simulation.congestion.getName(), windowSize, link));
+        System.out.println(String.format(
+            "Delivered: %d packets (%.1f pkt/s, %.2f MB/s), Sent: %d, Retransmissions: %d, Timeouts: %d",
+            simulation.base, simulation.base / seconds, simulation.base * PAYLOAD_SIZE / seconds / 1048576,
+            simulation.dataSent, simulation.retransmissions, simulation.timeouts));
+        System.out.println(String.format("Fast retransmits: %d in %d recovery episodes",
+            simulation.fastRetransmissions, simulation.fastRecoveries));
+        System.out.println(String.format("Mean cwnd: %.1f, Final RTO: %dms",
+            (double) simulation.windowTotal / Math.max(1, simulation.windowSamples),
+            simulation.rtoEstimator.getRto()));
+        System.out.println("DATA link: " + simulation.forward.getStatistics());
+        System.out.println("ACK link: " + simulation.reverse.getStatistics());
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Holds packets "on the wire" until their delivery time instead of sleeping on the sender's
+ * thread. In real time the deliveries sit in a DelayQueue and one daemon thread runs each as it
+ * falls due. On a VirtualClock nothing runs by itself: runUntil() and runUntilIdle() execute the
+ * deliveries in time order on the caller's thread, jumping the clock from one to the next, so
+ * hours of simulated traffic take as long as the work itself.
+ */
+public class DelayLine {
+    private static class Delivery implements Delayed {
+        private final long dueTime;
+        private final long order;
+        private final Runnable task;
+
+        Delivery(long dueTime, long order, Runnable task) {
+            this.dueTime = dueTime;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        // Equal due times run in scheduling order
+        @Override
+        public int compareTo(Delayed other) {
+            Delivery that = (Delivery) other;
+            if (dueTime != that.dueTime) {
+                return Long.compare(dueTime, that.dueTime);
+            }
+            return Long.compare(order, that.order);
+        }
+    }
+
+    private final VirtualClock virtualClock;
+    private final DelayQueue<Delivery> realTimeQueue;
+    private final PriorityQueue<Delivery> virtualQueue;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long scheduled = 0;
+    private long delivered = 0;
+
+    public DelayLine(String name) {
+        this.virtualClock = null;
+        this.realTimeQueue = new DelayQueue<>();
+        this.virtualQueue = null;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public DelayLine(VirtualClock virtualClock) {
+        this.virtualClock = virtualClock;
+        this.realTimeQueue = null;
+        this.virtualQueue = new PriorityQueue<>();
+        this.worker = null;
+    }
+
+    public boolean isVirtual() {
+        return virtualClock != null;
+    }
+
+    public long currentTimeMillis() {
+        return virtualClock != null ? virtualClock.currentTimeMillis() : System.currentTimeMillis();
+    }
+
+    public void schedule(Runnable task, long delayMillis) {
+        scheduleAt(task, currentTimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public synchronized void scheduleAt(Runnable task, long dueTime) {
+        Delivery delivery = new Delivery(dueTime, scheduled++, task);
+        if (virtualQueue != null) {
+            virtualQueue.add(delivery);
+        } else {
+            realTimeQueue.add(delivery);
+        }
+    }
+
+    // Virtual time only: runs every delivery due by endTime, then leaves the clock at endTime
+    public long runUntil(long endTime) {
+        requireVirtual();
+        long count = 0;
+        Delivery next;
+        while ((next = pollDue(endTime)) != null) {
+            virtualClock.advanceTo(next.dueTime);
+            runDelivery(next);
+            count++;
+        }
+        virtualClock.advanceTo(endTime);
+        return count;
+    }
+
+    public long runUntilIdle() {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    public synchronized int getPending() {
+        return virtualQueue != null ? virtualQueue.size() : realTimeQueue.size();
+    }
+
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private synchronized Delivery pollDue(long endTime) {
+        Delivery next = virtualQueue.peek();
+        if (next == null || next.dueTime > endTime || !running) {
+            return null;
+        }
+        return virtualQueue.poll();
+    }
+
+    private void requireVirtual() {
+        if (virtualClock == null) {
+            throw new IllegalStateException("Real-time delay lines run on their own thread");
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                runDelivery(realTimeQueue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runDelivery(Delivery delivery) {
+        try {
+            delivery.task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Delay line delivery failed: " + e.getMessage());
+        }
+        synchronized (this) {
+            delivered++;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Checks that CongestionSimulation recovers losses the way RDTProtocol's Selective Repeat does:
+ * ten simulated minutes of bulk traffic over a link with 1% random loss and 20-80ms of delay must
+ * repair most losses by SACK-hole fast retransmit, with fewer timeouts than recovery episodes.
+ * The link never reorders, so a hole is only resent when a DATA packet really was lost: more
+ * fast retransmits than DATA losses means ACKs already in flight resent the same hole again.
+ * Exits non-zero on failure:
+ *
+ *   java FastRetransmitTest
+ */
+public class FastRetransmitTest {
+    private static final long DURATION = 10 * 60 * 1000;
+    private static final double LOSS = 0.01;
+    private static final int WINDOW = 64;
+
+    public static void main(String[] args) {
+        DelayLine delayLine = new DelayLine(new VirtualClock());
+        NetworkSimulator dataLink = link(delayLine, 1);
+        CongestionSimulation simulation = new CongestionSimulation(
+            dataLink, link(delayLine, 2), new RenoCongestionController(), WINDOW);
+        simulation.run(DURATION);
+
+        long fast = simulation.getFastRetransmissions();
+        long recoveries = simulation.getFastRecoveries();
+        long timeouts = simulation.getTimeouts();
+        long lost = dataLink.getPacketsDropped();
+        boolean passed = fast > 0 && timeouts < recoveries && fast <= lost;
+        System.out.println(String.format(
+            "%s: delivered %d, DATA lost %d, fast retransmits %d in %d recovery episodes, timeouts %d",
+            passed ? "PASS" : "FAIL", simulation.getDelivered(), lost, fast, recoveries, timeouts));
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static NetworkSimulator link(DelayLine delayLine, long seed) {
+        return new NetworkSimulator(delayLine,
+            new Impairments.BernoulliLoss(LOSS, seed),
+            new Impairments.Delay(20, 80, seed));
+    }
+}
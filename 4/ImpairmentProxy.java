@@ -0,0 +1,278 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/*
+ * Loopback UDP proxy that puts a simulated link between any client and an unmodified server:
+ *
+ *   java -Drdt.port=5001 Server
+ *   java ImpairmentProxy --listen 5000 --server 5001 --seed 7 [--timeline outage.txt]
+ *   java Client2            (or any other client, still talking to port 5000)
+ *
+ * One thread and a Selector move the traffic. Each client gets its own upstream channel to the
+ * server so replies can be routed back, and each direction runs through its own NetworkSimulator
+ * on one shared DelayLine, so impaired packets wait there rather than stalling the loop. Loss and
+ * delay statistics for both directions are printed every --report seconds and on exit. A
+ * --timeline file (see NetworkTimeline) retunes both directions as the run goes on, and
+ * --trace replays a recorded NetworkTrace in each direction in place of the profile.
+ */
+public class ImpairmentProxy {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLOW_IDLE_TIMEOUT = Long.getLong("rdt.session.idleTimeout", 60000);
+
+    private final DatagramChannel front;
+    private final InetSocketAddress serverAddress;
+    private final Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<SocketAddress, Flow> flows = new HashMap<>();
+    private final NetworkSimulator clientToServer;
+    private final NetworkSimulator serverToClient;
+    private final long reportInterval;
+    private volatile boolean running;
+    private long unsentPackets = 0;
+
+    // One client's upstream channel; the server sees the proxy's ephemeral port in its place
+    private static class Flow {
+        final InetSocketAddress client;
+        final DatagramChannel upstream;
+        long lastActivity = System.currentTimeMillis();
+
+        Flow(InetSocketAddress client, DatagramChannel upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+    }
+
+    // Both simulators should share one real-time DelayLine so the proxy has a single delivery thread
+    public ImpairmentProxy(int listenPort, InetSocketAddress serverAddress,
+                           NetworkSimulator clientToServer, NetworkSimulator serverToClient,
+                           long reportInterval) throws IOException {
+        this.serverAddress = serverAddress;
+        this.clientToServer = clientToServer;
+        this.serverToClient = serverToClient;
+        this.reportInterval = reportInterval;
+        front = DatagramChannel.open();
+        front.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+        front.configureBlocking(false);
+        selector = Selector.open();
+        front.register(selector, SelectionKey.OP_READ);
+    }
+
+    public void start() {
+        running = true;
+        System.out.println("Impairment proxy on port " + ((InetSocketAddress) front.socket().getLocalSocketAddress()).getPort()
+            + " -> " + serverAddress);
+
+        long nextReport = System.currentTimeMillis() + reportInterval;
+        try {
+            while (running) {
+                selector.select(Math.max(1, nextReport - System.currentTimeMillis()));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid() || !key.isReadable()) {
+                        continue;
+                    }
+                    if (key.channel() == front) {
+                        drainClients();
+                    } else {
+                        drainServer((Flow) key.attachment());
+                    }
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    expireIdleFlows();
+                    report();
+                    nextReport = System.currentTimeMillis() + reportInterval;
+                }
+            }
+        } catch (ClosedSelectorException | ClosedChannelException e) {
+            // stop() closed the channels underneath the loop
+        } catch (IOException e) {
+            System.err.println("Impairment proxy error: " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    private void drainClients() throws IOException {
+        SocketAddress source;
+        while ((source = front.receive(receiveBuffer)) != null) {
+            Flow flow = flows.get(source);
+            if (flow == null) {
+                flow = openFlow((InetSocketAddress) source);
+            }
+            flow.lastActivity = System.currentTimeMillis();
+            DatagramChannel upstream = flow.upstream;
+            clientToServer.transmit(copyReceived(), data -> forward(upstream, data, null));
+        }
+    }
+
+    private void drainServer(Flow flow) throws IOException {
+        while (flow.upstream.receive(receiveBuffer) != null) {
+            flow.lastActivity = System.currentTimeMillis();
+            InetSocketAddress client = flow.client;
+            serverToClient.transmit(copyReceived(), data -> forward(front, data, client));
+        }
+    }
+
+    // The datagram has to outlive the receive buffer while it waits on the delay line
+    private byte[] copyReceived() {
+        receiveBuffer.flip();
+        byte[] data = new byte[receiveBuffer.remaining()];
+        receiveBuffer.get(data);
+        receiveBuffer.clear();
+        return data;
+    }
+
+    private Flow openFlow(InetSocketAddress client) throws IOException {
+        DatagramChannel upstream = DatagramChannel.open();
+        upstream.connect(serverAddress);
+        upstream.configureBlocking(false);
+        Flow flow = new Flow(client, upstream);
+        upstream.register(selector, SelectionKey.OP_READ, flow);
+        flows.put(client, flow);
+        System.out.println("New flow: " + client + " via " + upstream.getLocalAddress());
+        return flow;
+    }
+
+    // Runs on the delay line's thread. A full socket buffer drops the datagram, like a real link would
+    private void forward(DatagramChannel channel, byte[] data, InetSocketAddress target) {
+        try {
+            int sent = target == null ? channel.write(ByteBuffer.wrap(data)) : channel.send(ByteBuffer.wrap(data), target);
+            if (sent == 0) {
+                synchronized (this) {
+                    unsentPackets++;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                unsentPackets++;
+            }
+        }
+    }
+
+    private void expireIdleFlows() {
+        long now = System.currentTimeMillis();
+        Iterator<Flow> iterator = flows.values().iterator();
+        while (iterator.hasNext()) {
+            Flow flow = iterator.next();
+            if (now - flow.lastActivity > FLOW_IDLE_TIMEOUT) {
+                iterator.remove();
+                closeQuietly(flow.upstream);
+            }
+        }
+    }
+
+    public void report() {
+        long unsent;
+        synchronized (this) {
+            unsent = unsentPackets;
+        }
+        System.out.println("client->server: " + clientToServer.getStatistics());
+        System.out.println("server->client: " + serverToClient.getStatistics());
+        System.out.println("Flows: " + flows.size() + ", Unsent: " + unsent);
+    }
+
+    public void stop() {
+        if (!running && !front.isOpen()) {
+            return;
+        }
+        running = false;
+        report();
+        for (Flow flow : flows.values()) {
+            closeQuietly(flow.upstream);
+        }
+        flows.clear();
+        clientToServer.stop();
+        serverToClient.stop();
+        try {
+            selector.close();
+            front.close();
+        } catch (IOException e) {
+            System.err.println("Error closing impairment proxy: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to forward on it
+        }
+    }
+
+    public static void main(String[] args) {
+        int listenPort = 5000;
+        int serverPort = 5001;
+        String profile = "wan";
+        long seed = System.nanoTime();
+        long reportSeconds = 10;
+        String timelinePath = null;
+        String tracePath = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--listen")) {
+                listenPort = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--server")) {
+                serverPort = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--profile")) {
+                profile = args[i + 1];
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--report")) {
+                reportSeconds = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--timeline")) {
+                timelinePath = args[i + 1];
+            } else if (args[i].equals("--trace")) {
+                tracePath = args[i + 1];
+            }
+        }
+
+        // "wan" impairs both directions with NetworkSimulator.wanProfile; "clean" only forwards,
+        // unless a timeline needs stages to tune
+        DelayLine delayLine = new DelayLine("impairment-proxy");
+        NetworkSimulator clientToServer;
+        NetworkSimulator serverToClient;
+        if (tracePath != null) {
+            try {
+                NetworkTrace trace = NetworkTrace.load(tracePath);
+                System.out.println("Replaying " + trace);
+                clientToServer = NetworkSimulator.replay(trace, delayLine);
+                serverToClient = NetworkSimulator.replay(trace, delayLine);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load trace " + tracePath + ": " + e.getMessage());
+                return;
+            }
+        } else if (profile.equals("clean") && timelinePath != null) {
+            clientToServer = NetworkSimulator.tunableProfile(seed, delayLine);
+            serverToClient = NetworkSimulator.tunableProfile(seed + 1, delayLine);
+        } else if (profile.equals("clean")) {
+            clientToServer = new NetworkSimulator(delayLine);
+            serverToClient = new NetworkSimulator(delayLine);
+        } else if (profile.equals("wan")) {
+            clientToServer = NetworkSimulator.wanProfile(seed, delayLine);
+            serverToClient = NetworkSimulator.wanProfile(seed + 1, delayLine);
+        } else {
+            System.err.println("Unknown profile: " + profile + " (expected wan or clean)");
+            return;
+        }
+
+        try {
+            ImpairmentProxy proxy = new ImpairmentProxy(listenPort,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverPort),
+                clientToServer, serverToClient, reportSeconds * 1000);
+            Runtime.getRuntime().addShutdownHook(new Thread(proxy::stop));
+            if (tracePath == null) {
+                System.out.println("Profile " + profile + ", seed " + seed);
+            }
+            if (timelinePath != null) {
+                NetworkTimeline.load(timelinePath).start(clientToServer, serverToClient);
+            }
+            proxy.start();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not start impairment proxy: " + e.getMessage());
+        }
+    }
+}
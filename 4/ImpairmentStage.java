@@ -0,0 +1,36 @@
+import java.util.function.Consumer;
+
+/*
+ * One step of a simulated link (see Impairments). A stage receives each packet with the time it
+ * reaches that point of the link and hands zero, one or more packets downstream: dropping means
+ * not calling next, delaying means moving the time forward. NetworkSimulator chains the stages
+ * and delivers whatever comes out of the last one at its final time.
+ */
+public interface ImpairmentStage {
+    void process(Transit packet, Consumer<Transit> next);
+
+    final class Transit {
+        private byte[] data;
+        private long timeNanos;
+
+        public Transit(byte[] data, long timeNanos) {
+            this.data = data;
+            this.timeNanos = timeNanos;
+        }
+
+        public byte[] getData() { return data; }
+        public long getTimeNanos() { return timeNanos; }
+
+        public void setData(byte[] data) {
+            this.data = data;
+        }
+
+        public void setTimeNanos(long timeNanos) {
+            this.timeNanos = timeNanos;
+        }
+
+        public Transit copy() {
+            return new Transit(data.clone(), timeNanos);
+        }
+    }
+}
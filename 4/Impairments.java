@@ -0,0 +1,254 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Impairment stages for NetworkSimulator, each with its own seeded Random so a run can be
+ * repeated exactly. Stages compose in the order given to the simulator; a typical link is
+ *
+ *   loss -> bandwidth limit -> delay -> reordering -> duplication
+ *
+ * Delay keeps packets in order, so reordering has to come after it to have any effect.
+ */
+public final class Impairments {
+    private Impairments() {
+    }
+
+    // Independent loss with a fixed probability per packet
+    public static class BernoulliLoss implements ImpairmentStage {
+        private final Random random;
+        private double lossRate;
+
+        public BernoulliLoss(double lossRate, long seed) {
+            this.lossRate = lossRate;
+            this.random = new Random(seed);
+        }
+
+        public void setLossRate(double lossRate) {
+            this.lossRate = lossRate;
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            if (random.nextDouble() >= lossRate) {
+                next.accept(packet);
+            }
+        }
+    }
+
+    /*
+     * Two-state burst loss. Before each packet the link moves Good -> Bad with probability
+     * goodToBad and Bad -> Good with probability badToGood, then loses the packet with that
+     * state's loss rate. Mean burst length is 1 / badToGood packets; the long-run loss rate is
+     * (goodToBad * badLoss + badToGood * goodLoss) / (goodToBad + badToGood).
+     */
+    public static class GilbertElliottLoss implements ImpairmentStage {
+        private final Random random;
+        private final double goodToBad;
+        private final double badToGood;
+        private final double goodLoss;
+        private final double badLoss;
+        private boolean bad = false;
+
+        public GilbertElliottLoss(double goodToBad, double badToGood, double goodLoss, double badLoss, long seed) {
+            this.goodToBad = goodToBad;
+            this.badToGood = badToGood;
+            this.goodLoss = goodLoss;
+            this.badLoss = badLoss;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            bad = bad ? random.nextDouble() >= badToGood : random.nextDouble() < goodToBad;
+            if (random.nextDouble() >= (bad ? badLoss : goodLoss)) {
+                next.accept(packet);
+            }
+        }
+
+        public boolean isBad() {
+            return bad;
+        }
+    }
+
+    // Overwrites one to three random bytes of a copy, so the receiver's checksum has something to catch
+    public static class Corruption implements ImpairmentStage {
+        private final Random random;
+        private double corruptionRate;
+
+        public Corruption(double corruptionRate, long seed) {
+            this.corruptionRate = corruptionRate;
+            this.random = new Random(seed);
+        }
+
+        public void setCorruptionRate(double corruptionRate) {
+            this.corruptionRate = corruptionRate;
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            byte[] data = packet.getData();
+            if (data.length > 0 && random.nextDouble() < corruptionRate) {
+                byte[] corrupted = data.clone();
+                int bytesToCorrupt = random.nextInt(3) + 1;
+                for (int i = 0; i < bytesToCorrupt; i++) {
+                    corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt(256);
+                }
+                packet.setData(corrupted);
+            }
+            next.accept(packet);
+        }
+    }
+
+    // Uniform one-way delay in [minDelay, maxDelay] ms; a packet never leaves before the one ahead of it
+    public static class Delay implements ImpairmentStage {
+        private final Random random;
+        private long minDelayNanos;
+        private long maxDelayNanos;
+        private long lastDepartureNanos = Long.MIN_VALUE;
+
+        public Delay(long minDelay, long maxDelay, long seed) {
+            this.random = new Random(seed);
+            setRange(minDelay, maxDelay);
+        }
+
+        // Packets already on the wire keep their times; a shorter delay only takes effect once they have left
+        public void setRange(long minDelay, long maxDelay) {
+            if (minDelay < 0 || maxDelay < minDelay) {
+                throw new IllegalArgumentException("Delay range " + minDelay + "-" + maxDelay + "ms is invalid");
+            }
+            this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelay);
+            this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            long delay = minDelayNanos + (long) (random.nextDouble() * (maxDelayNanos - minDelayNanos));
+            lastDepartureNanos = Math.max(packet.getTimeNanos() + delay, lastDepartureNanos);
+            packet.setTimeNanos(lastDepartureNanos);
+            next.accept(packet);
+        }
+    }
+
+    // Holds a fraction of packets back by an extra delay so the ones behind them overtake
+    public static class Reordering implements ImpairmentStage {
+        private final Random random;
+        private final double probability;
+        private final long extraDelayNanos;
+
+        public Reordering(double probability, long extraDelay, long seed) {
+            this.probability = probability;
+            this.extraDelayNanos = TimeUnit.MILLISECONDS.toNanos(extraDelay);
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            if (random.nextDouble() < probability) {
+                packet.setTimeNanos(packet.getTimeNanos() + extraDelayNanos);
+            }
+            next.accept(packet);
+        }
+    }
+
+    // Delivers a fraction of packets twice
+    public static class Duplication implements ImpairmentStage {
+        private final Random random;
+        private final double probability;
+
+        public Duplication(double probability, long seed) {
+            this.probability = probability;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            Transit duplicate = random.nextDouble() < probability ? packet.copy() : null;
+            next.accept(packet);
+            if (duplicate != null) {
+                next.accept(duplicate);
+            }
+        }
+    }
+
+    /*
+     * Replays a NetworkTrace: the n-th packet through the stage gets the n-th recorded delay, or
+     * is lost if the trace lost it. Delays are applied exactly as recorded, so a trace whose
+     * delay falls faster than packets are sent reorders them just as the real link did. The
+     * trace starts over when it runs out; getReplayed() / trace size tells how often it did.
+     */
+    public static class TraceReplay implements ImpairmentStage {
+        private final NetworkTrace trace;
+        private long replayed = 0;
+
+        public TraceReplay(NetworkTrace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            long delay = trace.delayNanos(replayed++);
+            if (delay != NetworkTrace.LOST) {
+                packet.setTimeNanos(packet.getTimeNanos() + delay);
+                next.accept(packet);
+            }
+        }
+
+        public long getReplayed() {
+            return replayed;
+        }
+    }
+
+    /*
+     * Bottleneck link: packets are serialised one after another at bitsPerSecond behind a
+     * drop-tail queue of queueBytes. A packet that finds the queue full is lost, which is the
+     * congestion signal a window-based sender should react to. A rate of 0 lifts the limit.
+     */
+    public static class BandwidthLimit implements ImpairmentStage {
+        private long bitsPerSecond;
+        private final long queueBytes;
+        private long linkFreeNanos = Long.MIN_VALUE;
+        private long queueDrops = 0;
+
+        public BandwidthLimit(long bitsPerSecond, long queueBytes) {
+            if (queueBytes <= 0) {
+                throw new IllegalArgumentException("Queue size must be positive");
+            }
+            this.queueBytes = queueBytes;
+            setBitsPerSecond(bitsPerSecond);
+        }
+
+        // Packets already queued keep the departure times they got at the old rate
+        public void setBitsPerSecond(long bitsPerSecond) {
+            if (bitsPerSecond < 0) {
+                throw new IllegalArgumentException("Bandwidth must not be negative");
+            }
+            this.bitsPerSecond = bitsPerSecond;
+        }
+
+        @Override
+        public void process(Transit packet, Consumer<Transit> next) {
+            if (bitsPerSecond == 0) {
+                next.accept(packet);
+                return;
+            }
+            long arrival = packet.getTimeNanos();
+            int size = packet.getData().length;
+            long backlogBytes = linkFreeNanos > arrival
+                ? (linkFreeNanos - arrival) * bitsPerSecond / 8 / TimeUnit.SECONDS.toNanos(1)
+                : 0;
+            if (backlogBytes + size > queueBytes) {
+                queueDrops++;
+                return;
+            }
+            long serialization = size * 8L * TimeUnit.SECONDS.toNanos(1) / bitsPerSecond;
+            linkFreeNanos = Math.max(arrival, linkFreeNanos) + serialization;
+            packet.setTimeNanos(linkFreeNanos);
+            next.accept(packet);
+        }
+
+        public long getQueueDrops() {
+            return queueDrops;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Packs small application messages into one DATA payload, so a burst costs one datagram and one
+ * ACK instead of one of each per message. Every message is framed as
+ *
+ *   length:2 | bytes:length
+ *
+ * and the packet carrying the batch is marked with FLAG_BATCH. A batch is closed when the next
+ * message no longer fits in maxBatchBytes, or when its oldest message has lingered lingerMillis.
+ * The batcher keeps no timer: isDue() only answers when asked, so a sender that may go quiet has
+ * to arm one for getDeadline() to flush the last batch (Client2 uses the shared TimerWheel).
+ * Not thread-safe.
+ */
+public class MessageBatcher {
+    public static final int LENGTH_PREFIX_SIZE = 2;
+    public static final int MAX_MESSAGE_SIZE = 0xFFFF;
+    public static final int DEFAULT_MAX_BATCH_BYTES = RDTProtocol.MAX_DATAGRAM_SIZE - BinaryPacketCodec.HEADER_SIZE;
+
+    private final ByteBuffer batch;
+    private final long lingerMillis;
+    private int messageCount = 0;
+    private long firstMessageTime = 0;
+
+    public MessageBatcher(long lingerMillis) {
+        this(DEFAULT_MAX_BATCH_BYTES, lingerMillis);
+    }
+
+    public MessageBatcher(int maxBatchBytes, long lingerMillis) {
+        if (maxBatchBytes <= LENGTH_PREFIX_SIZE) {
+            throw new IllegalArgumentException("Batch must hold more than " + LENGTH_PREFIX_SIZE + " bytes");
+        }
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("Linger time must not be negative");
+        }
+        this.batch = ByteBuffer.allocate(maxBatchBytes);
+        this.lingerMillis = lingerMillis;
+    }
+
+    // Returns false when the message does not fit behind what is already batched: drain() and try again.
+    // A message that is still refused on an empty batch is too large to batch and must be sent on its own.
+    public boolean add(byte[] message, long now) {
+        if (message.length > MAX_MESSAGE_SIZE || LENGTH_PREFIX_SIZE + message.length > batch.remaining()) {
+            return false;
+        }
+        if (messageCount++ == 0) {
+            firstMessageTime = now;
+        }
+        batch.putShort((short) message.length);
+        batch.put(message);
+        return true;
+    }
+
+    public boolean isDue(long now) {
+        if (messageCount == 0) {
+            return false;
+        }
+        return now - firstMessageTime >= lingerMillis || batch.remaining() <= LENGTH_PREFIX_SIZE;
+    }
+
+    // When the current batch becomes due by lingering, or Long.MAX_VALUE if nothing is batched
+    public long getDeadline() {
+        return messageCount == 0 ? Long.MAX_VALUE : firstMessageTime + lingerMillis;
+    }
+
+    public boolean isEmpty() {
+        return messageCount == 0;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    // Hands out the framed batch and starts an empty one
+    public byte[] drain() {
+        byte[] payload = Arrays.copyOf(batch.array(), batch.position());
+        batch.clear();
+        messageCount = 0;
+        return payload;
+    }
+
+    public static List<byte[]> unpack(byte[] payload) throws ProtocolException {
+        List<byte[]> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < LENGTH_PREFIX_SIZE) {
+                throw new ProtocolException("Truncated length prefix at offset " + buffer.position());
+            }
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining()) {
+                throw new ProtocolException("Message of " + length + " bytes at offset " + buffer.position() +
+                                            " overruns the batch");
+            }
+            byte[] message = new byte[length];
+            buffer.get(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * A scenario that retunes NetworkSimulators while traffic flows. Each line is an offset from
+ * start() followed by the settings that change at that moment; anything not mentioned keeps its
+ * value:
+ *
+ *   # offset  settings
+ *   0s        loss=0.01 delay=20-80 bandwidth=10000
+ *   30s       loss=0.2                  loss spike
+ *   45s       loss=0.01 delay=150-200   RTT step
+ *   60s       off                       perfect link
+ *   75s       on
+ *   90s       loss=1                    outage
+ *   92s       loss=0.01 delay=20-80
+ *
+ * Offsets take ms, s or m. loss and corruption are rates, delay is MIN-MAX or a single value in
+ * ms, bandwidth is kbit/s (0 lifts the limit). Steps run on the simulator's own DelayLine, so
+ * the same file drives a live link in real time or CongestionSimulation in virtual time.
+ */
+public class NetworkTimeline {
+    public static class Step {
+        private final long offsetMillis;
+        private String settings;
+        private Double lossRate;
+        private Double corruptionRate;
+        private int minDelay = -1;
+        private int maxDelay = -1;
+        private long bitsPerSecond = -1;
+        private Boolean enabled;
+
+        Step(long offsetMillis) {
+            this.offsetMillis = offsetMillis;
+        }
+
+        public long getOffsetMillis() { return offsetMillis; }
+
+        public void applyTo(NetworkSimulator simulator) {
+            if (lossRate != null) {
+                simulator.setLossRate(lossRate);
+            }
+            if (corruptionRate != null) {
+                simulator.setCorruptionRate(corruptionRate);
+            }
+            if (minDelay >= 0) {
+                simulator.setDelayRange(minDelay, maxDelay);
+            }
+            if (bitsPerSecond >= 0) {
+                simulator.setBandwidth(bitsPerSecond);
+            }
+            if (enabled != null) {
+                simulator.setEnabled(enabled);
+            }
+        }
+
+        boolean needsBandwidthStage() {
+            return bitsPerSecond >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "+" + offsetMillis + "ms " + settings;
+        }
+    }
+
+    private final List<Step> steps;
+
+    public NetworkTimeline(List<Step> steps) {
+        List<Step> sorted = new ArrayList<>(steps);
+        sorted.sort((a, b) -> Long.compare(a.offsetMillis, b.offsetMillis));
+        this.steps = Collections.unmodifiableList(sorted);
+    }
+
+    public static NetworkTimeline load(String path) throws IOException {
+        return parse(Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8));
+    }
+
+    public static NetworkTimeline parse(List<String> lines) {
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                steps.add(parseStep(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Timeline line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return new NetworkTimeline(steps);
+    }
+
+    // Words without '=' after the settings are free text, so a step can say what it models
+    private static Step parseStep(String line) {
+        String[] tokens = line.split("\\s+");
+        StringBuilder settings = new StringBuilder();
+        Step step = new Step(parseOffset(tokens[0]));
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            int equals = token.indexOf('=');
+            if (token.equals("on") || token.equals("off")) {
+                step.enabled = token.equals("on");
+            } else if (equals > 0) {
+                applySetting(step, token.substring(0, equals), token.substring(equals + 1));
+            } else {
+                break;
+            }
+            settings.append(settings.length() == 0 ? "" : " ").append(token);
+        }
+        if (settings.length() == 0) {
+            throw new IllegalArgumentException("no settings after offset " + tokens[0]);
+        }
+        step.settings = settings.toString();
+        return step;
+    }
+
+    private static void applySetting(Step step, String key, String value) {
+        switch (key) {
+            case "loss":
+                step.lossRate = parseRate(key, value);
+                break;
+            case "corruption":
+                step.corruptionRate = parseRate(key, value);
+                break;
+            case "delay":
+                int dash = value.indexOf('-');
+                step.minDelay = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                step.maxDelay = Integer.parseInt(dash < 0 ? value : value.substring(dash + 1));
+                if (step.minDelay < 0 || step.maxDelay < step.minDelay) {
+                    throw new IllegalArgumentException("delay range " + value + " is invalid");
+                }
+                break;
+            case "bandwidth":
+                step.bitsPerSecond = Long.parseLong(value) * 1000;
+                if (step.bitsPerSecond < 0) {
+                    throw new IllegalArgumentException("bandwidth must not be negative");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown setting " + key);
+        }
+    }
+
+    private static double parseRate(String key, String value) {
+        double rate = Double.parseDouble(value);
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(key + " must be between 0 and 1");
+        }
+        return rate;
+    }
+
+    private static long parseOffset(String token) {
+        if (token.endsWith("ms")) {
+            return Long.parseLong(token.substring(0, token.length() - 2));
+        } else if (token.endsWith("s")) {
+            return (long) (Double.parseDouble(token.substring(0, token.length() - 1)) * 1000);
+        } else if (token.endsWith("m")) {
+            return (long) (Double.parseDouble(token.substring(0, token.length() - 1)) * 60000);
+        }
+        throw new IllegalArgumentException("offset " + token + " needs a unit (ms, s or m)");
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public long getDurationMillis() {
+        return steps.isEmpty() ? 0 : steps.get(steps.size() - 1).offsetMillis;
+    }
+
+    /*
+     * Applies steps at offset 0 at once and schedules the rest on each simulator's delay line.
+     * Every simulator gets the same steps, so one file can impair both directions of a link.
+     */
+    public void start(NetworkSimulator... simulators) {
+        for (Step step : steps) {
+            if (!step.needsBandwidthStage()) {
+                continue;
+            }
+            for (NetworkSimulator simulator : simulators) {
+                if (simulator.getStages().stream().noneMatch(s -> s instanceof Impairments.BandwidthLimit)) {
+                    throw new IllegalArgumentException("Timeline sets bandwidth but a simulator has no bandwidth stage");
+                }
+            }
+        }
+
+        for (Step step : steps) {
+            for (int i = 0; i < simulators.length; i++) {
+                NetworkSimulator simulator = simulators[i];
+                boolean announce = i == 0;
+                Runnable apply = () -> {
+                    step.applyTo(simulator);
+                    if (announce) {
+                        System.out.println("Network timeline " + step);
+                    }
+                };
+                if (step.offsetMillis <= 0) {
+                    apply.run();
+                } else {
+                    simulator.getDelayLine().schedule(apply, step.offsetMillis);
+                }
+            }
+        }
+    }
+
+    // Starts the timeline named by -Drdt.sim.timeline, if any; a bad file is reported and ignored
+    public static void startFromProperty(NetworkSimulator... simulators) {
+        String path = System.getProperty("rdt.sim.timeline");
+        if (path == null) {
+            return;
+        }
+        try {
+            load(path).start(simulators);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not start network timeline " + path + ": " + e.getMessage());
+        }
+    }
+}
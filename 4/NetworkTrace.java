@@ -0,0 +1,122 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * A recorded per-packet sequence of one-way delays and losses, replayed by
+ * Impairments.TraceReplay. Three sources are understood:
+ *
+ *   trace files    one packet per line: its delay in ms (fractions allowed), or "loss";
+ *                  '#' starts a comment
+ *   .log files     CommunicationLogger text logs: every "RTT: Nms" event becomes a packet
+ *                  delayed N/2 ms and every "Packet dropped" event a loss, in file order
+ *   .journal files the binary form of the same log, read through JournalDecoder
+ *
+ * Logs only hold round-trip times, so each direction of the replayed link gets half of each RTT.
+ */
+public class NetworkTrace {
+    public static final long LOST = -1;
+
+    private static final Pattern RTT_EVENT = Pattern.compile("\\] (?:Packet sent|Packet received) - .*RTT: (\\d+)ms");
+    private static final Pattern DROP_EVENT = Pattern.compile("\\] Packet dropped - ");
+
+    private final String source;
+    // One-way delay of each packet in ns, or LOST
+    private final long[] delaysNanos;
+
+    public NetworkTrace(String source, long[] delaysNanos) {
+        if (delaysNanos.length == 0) {
+            throw new IllegalArgumentException("Trace " + source + " has no packets");
+        }
+        this.source = source;
+        this.delaysNanos = delaysNanos.clone();
+    }
+
+    public static NetworkTrace load(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (path.endsWith(".journal")) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            new JournalDecoder(false, new PrintStream(decoded, true, "UTF-8")).decode(file);
+            return fromLog(path, Arrays.asList(decoded.toString("UTF-8").split("\\R")));
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        return path.endsWith(".log") ? fromLog(path, lines) : fromTrace(path, lines);
+    }
+
+    public static NetworkTrace fromTrace(String source, List<String> lines) {
+        long[] delays = new long[lines.size()];
+        int count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int comment = line.indexOf('#');
+            line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String token = line.split("\\s+")[0];
+            if (token.equalsIgnoreCase("loss")) {
+                delays[count++] = LOST;
+                continue;
+            }
+            try {
+                double delayMillis = Double.parseDouble(token);
+                if (delayMillis < 0) {
+                    throw new NumberFormatException("negative delay");
+                }
+                delays[count++] = (long) (delayMillis * 1e6);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Trace " + source + " line " + (i + 1)
+                    + ": expected a delay in ms or \"loss\", got " + token);
+            }
+        }
+        return new NetworkTrace(source, Arrays.copyOf(delays, count));
+    }
+
+    public static NetworkTrace fromLog(String source, List<String> lines) {
+        long[] delays = new long[lines.size()];
+        int count = 0;
+        for (String line : lines) {
+            Matcher rtt = RTT_EVENT.matcher(line);
+            if (rtt.find()) {
+                delays[count++] = Long.parseLong(rtt.group(1)) * 1000000L / 2;
+            } else if (DROP_EVENT.matcher(line).find()) {
+                delays[count++] = LOST;
+            }
+        }
+        return new NetworkTrace(source, Arrays.copyOf(delays, count));
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int size() {
+        return delaysNanos.length;
+    }
+
+    // LOST, or the delay in ns; the index wraps so a short trace can cover a long run
+    public long delayNanos(long index) {
+        return delaysNanos[(int) (index % delaysNanos.length)];
+    }
+
+    public double getLossRate() {
+        long lost = Arrays.stream(delaysNanos).filter(d -> d == LOST).count();
+        return (double) lost / delaysNanos.length;
+    }
+
+    public double getMeanDelayMillis() {
+        return Arrays.stream(delaysNanos).filter(d -> d != LOST).average().orElse(0) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d packets, loss %.2f%%, mean one-way delay %.1fms",
+            source, delaysNanos.length, 100 * getLossRate(), getMeanDelayMillis());
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.*;
+import java.net.ProtocolException;
+
+// Original java.io serialization format, kept so older peers can still be decoded.
+public class SerializedPacketCodec implements PacketCodec {
+
+    /*
+     * Datagrams come from anyone, so deserialization only resolves the classes a Packet is made
+     * of; any other class in the stream is rejected before it is loaded or instantiated. This is
+     * the Java 8 form of an ObjectInputFilter that allows only Packet.
+     */
+    private static class PacketInputStream extends ObjectInputStream {
+        PacketInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (name.equals(Packet.class.getName()) || name.equals(Packet.PacketType.class.getName())
+                    || name.equals(Enum.class.getName()) || name.equals("[B")) {
+                return super.resolveClass(desc);
+            }
+            throw new InvalidClassException(name, "not allowed in a packet");
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxy", "not allowed in a packet");
+        }
+    }
+
+    @Override
+    public int version() {
+        return LEGACY_VERSION;
+    }
+
+    @Override
+    public byte[] encode(Packet packet) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(packet);
+        return baos.toByteArray();
+    }
+
+    // Truncated or hostile streams fail in many ways; all of them are a malformed datagram
+    @Override
+    public Packet decode(byte[] bytes, int offset, int length) throws ProtocolException {
+        try (ObjectInputStream ois = new PacketInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            return (Packet) ois.readObject();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            throw new ProtocolException("Not a packet: " + e);
+        }
+    }
+}
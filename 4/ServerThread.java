@@ -1,6 +1,6 @@
 import java.net.*;
 import java.io.*;
-import java.util.Arrays;
+import java.util.concurrent.*;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -9,13 +9,19 @@ public class ServerThread extends Thread {
     private final InetAddress clientAddress;
     private final int clientPort;
     private final RDTProtocol rdtProtocol;
-    private boolean running;
+    private volatile boolean running;
     private final CommunicationLogger logger;
+    private static final int INBOUND_CAPACITY = 256;
+    private static final long POLL_INTERVAL = 100;
+    private final BlockingQueue<Packet> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
     private final String transactionId;
     private final long startTime;
     private int packetsSent = 0;
     private int packetsReceived = 0;
     private final List<Long> rttMeasurements;
+    private static final int RECEIVE_WINDOW = 32;
+    private final ReceiveWindow receiveWindow;
+    private final AckCoalescer ackCoalescer = new AckCoalescer();
 
     public ServerThread(DatagramSocket socket, InetAddress clientAddress, int clientPort) {
         this.socket = socket;
@@ -27,27 +33,23 @@ public class ServerThread extends Thread {
         this.startTime = System.currentTimeMillis();
         this.transactionId = logger.startTransaction(clientAddress.getHostAddress(), clientPort);
         this.rttMeasurements = new ArrayList<>();
+        this.receiveWindow = new ReceiveWindow(RECEIVE_WINDOW);
     }
 
     @Override
     public void run() {
         try {
             while (running) {
-                byte[] receiveData = new byte[1024];
-                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                
                 long receiveTime = System.currentTimeMillis();
-                socket.receive(receivePacket);
-
-                if (!receivePacket.getAddress().equals(clientAddress) || 
-                    receivePacket.getPort() != clientPort) {
+                Packet packet = inbound.poll(ackCoalescer.pollTimeout(receiveTime, POLL_INTERVAL),
+                                             TimeUnit.MILLISECONDS);
+                if (packet == null) {
+                    if (ackCoalescer.isDue(System.currentTimeMillis())) {
+                        sendACK(rttMeasurements.get(rttMeasurements.size() - 1));
+                    }
                     continue;
                 }
 
-                Packet packet = Packet.fromBytes(
-                    Arrays.copyOf(receivePacket.getData(), receivePacket.getLength())
-                );
-
                 if (!packet.isValid()) {
                     sendNACK(packet.getSequenceNumber());
                     continue;
@@ -56,30 +58,47 @@ public class ServerThread extends Thread {
                 long rtt = System.currentTimeMillis() - receiveTime;
                 rttMeasurements.add(rtt);
                 
-                processPacket(packet, rtt);
+                List<Packet> delivered = receiveWindow.receive(packet);
+                for (Packet next : delivered) {
+                    processPacket(next);
+                }
+                // Gaps, duplicates and filled holes are acknowledged at once; only a clean in-order run is coalesced
+                boolean inOrder = delivered.size() == 1 && receiveWindow.getBufferedCount() == 0;
+                if (!inOrder || ackCoalescer.onInOrder(System.currentTimeMillis(), !inbound.isEmpty())) {
+                    sendACK(rtt);
+                }
+            }
+            if (ackCoalescer.hasPending()) {
+                sendACK(rttMeasurements.get(rttMeasurements.size() - 1));
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Error in ServerThread: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             rdtProtocol.stop();
         }
     }
 
-    private void processPacket(Packet packet, long rtt) throws IOException {
+    private void processPacket(Packet packet) {
         System.out.println("Processing packet " + packet.getSequenceNumber() + 
                          " from client " + clientAddress + ":" + clientPort);
         packetsReceived++;
         logger.logPacketReceived(transactionId, packet);
-        
+    }
+
+    // Cumulative ACK for the last in-order packet, with any buffered out-of-order packets in the SACK bitmap
+    private void sendACK(long rtt) throws IOException {
         Packet ackPacket = new Packet(
             Packet.PacketType.ACK,
-            packet.getSequenceNumber(),
+            receiveWindow.getLastInOrder(),
             null
-        );
+        ).withSelectiveAcks(receiveWindow.getSelectiveAcks()).withReceiveWindow(advertisedWindow());
         
-        rdtProtocol.sendPacket(ackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(ackPacket, clientAddress, clientPort);
         packetsSent++;
         logger.logPacketSentWithRTT(transactionId, ackPacket, rtt);
+        ackCoalescer.onAckSent();
     }
 
     private void sendNACK(int sequenceNumber) throws IOException {
@@ -89,7 +108,16 @@ public class ServerThread extends Thread {
             null
         );
         
-        rdtProtocol.sendPacket(nackPacket, clientAddress, clientPort);
+        rdtProtocol.sendControl(nackPacket, clientAddress, clientPort);
+    }
+
+    // Flow control: advertise what the inbound queue can still hold, capped by how far ahead the reorder buffer reaches
+    private int advertisedWindow() {
+        return Math.min(inbound.remainingCapacity(), receiveWindow.getCapacity());
+    }
+
+    public boolean deliver(Packet packet) {
+        return running && inbound.offer(packet);
     }
 
     public void stopThread() {
@@ -0,0 +1,22 @@
+// Simulated time for NetworkSimulator: it only moves when a virtual DelayLine runs its next delivery.
+public class VirtualClock {
+    private long now;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    public VirtualClock(long startMillis) {
+        this.now = startMillis;
+    }
+
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    synchronized void advanceTo(long timeMillis) {
+        if (timeMillis > now) {
+            now = timeMillis;
+        }
+    }
+}